@@ -0,0 +1,23 @@
+package com.github.aidanPB.text.ansi.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks as JMH's own main class would, with the GC profiler
+ * always on so that the allocation per operation is reported. Any JMH options
+ * may be given, e.g. a benchmark name pattern or -p shape=dense.
+ */
+public class BenchmarkMain {
+
+	public static void main(String[] args) throws Exception{
+		CommandLineOptions options = new CommandLineOptions(args);
+		if(options.shouldHelp()){
+			options.showHelp();
+			return;
+		}
+		new Runner(new OptionsBuilder().parent(options).addProfiler(GCProfiler.class).build()).run();
+	}
+}
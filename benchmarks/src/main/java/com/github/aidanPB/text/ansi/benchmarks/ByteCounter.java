@@ -0,0 +1,23 @@
+package com.github.aidanPB.text.ansi.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Counts the bytes of encoded text each benchmark handles, which JMH reports as
+ * a rate next to the operation throughput.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class ByteCounter {
+
+	public long bytes;
+
+	@Setup(Level.Iteration)
+	public void reset(){
+		bytes = 0;
+	}
+}
@@ -0,0 +1,65 @@
+package com.github.aidanPB.text.ansi.benchmarks;
+
+import java.text.AttributedCharacterIterator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.aidanPB.text.ansi.ANSIAttributedString;
+
+/**
+ * How the cost of parsing grows with the number of escape codes in an input of
+ * a fixed length. Each doubling of codes should roughly double the time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodeScalingBenchmark {
+
+	private static final int LENGTH = 1 << 16;
+	private static final String[] CODES = {"1", "31", "4", "42", "22", "38;5;208", "24", "0"};
+
+	/**
+	 * The number of escape codes, spread evenly over LENGTH chars of text.
+	 */
+	@Param({"1000", "2000", "4000", "8000", "16000"})
+	public int codes;
+
+	public String encoded;
+
+	@Setup(Level.Trial)
+	public void setUp(){
+		StringBuilder sb = new StringBuilder(LENGTH + codes * 12);
+		int text = 0;
+		for(int i = 0;i < codes;++i){
+			sb.append("\033[").append(CODES[i % CODES.length]).append('m');
+			int next = (int) ((long) LENGTH * (i + 1) / codes);
+			for(;text < next;++text) sb.append(text % 64 == 63 ? '\n' : (char) ('a' + text % 26));
+		}
+		encoded = sb.toString();
+	}
+
+	/**
+	 * Parses the input and asks for its attributes, as rendering it would.
+	 */
+	@Benchmark
+	public AttributedCharacterIterator fromString(){
+		AttributedCharacterIterator iterator = ANSIAttributedString.fromString(encoded).getIterator();
+		while(iterator.getRunLimit() < iterator.getEndIndex()) iterator.setIndex(iterator.getRunLimit());
+		return iterator;
+	}
+}
@@ -0,0 +1,122 @@
+package com.github.aidanPB.text.ansi.benchmarks;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.github.aidanPB.text.ansi.ANSIAttributedString;
+import com.github.aidanPB.text.ansi.ANSIAttributedString.ANSIEncoding;
+
+/**
+ * The inputs of the parse and encode benchmarks: about 64K chars of text in
+ * one of several shapes, generated from a fixed seed so that every run sees
+ * the same input.
+ */
+@State(Scope.Benchmark)
+public class Corpus {
+
+	private static final int SIZE = 1 << 16;
+	private static final String ESC = "\033[";
+	private static final String[] WORDS = {"request", "handled", "in", "12ms", "user", "session", "cache", "miss",
+		"GET", "/api/v1/items", "200", "OK", "connection", "closed", "retrying", "timeout", "é", "naïve", "→"};
+
+	/**
+	 * plain: log lines without sequences.<br>
+	 * sparse: a coloured level at the start of each log line.<br>
+	 * dense: a new 16-colour foreground for every character.<br>
+	 * extended: 256-colour and truecolour foregrounds and backgrounds on every word.<br>
+	 * longLines: lines of about 10K chars, with a style change every few hundred.
+	 */
+	@Param({"plain", "sparse", "dense", "extended", "longLines"})
+	public String shape;
+
+	/**
+	 * The text with its SGR sequences.
+	 */
+	public String encoded;
+
+	/**
+	 * The result of parsing encoded.
+	 */
+	public ANSIAttributedString parsed;
+
+	/**
+	 * The length of encoded in UTF-8.
+	 */
+	public long byteLength;
+
+	/**
+	 * The lengths in UTF-8 of parsed encoded with SEPARATE and with MINIMAL, which
+	 * is what the encode benchmarks produce.
+	 */
+	public long separateByteLength;
+	public long minimalByteLength;
+
+	@Setup(Level.Trial)
+	public void setUp() throws UnsupportedEncodingException{
+		encoded = generate(shape, new Random(42));
+		parsed = ANSIAttributedString.fromString(encoded);
+		byteLength = encoded.getBytes("UTF-8").length;
+		separateByteLength = parsed.encode(ANSIEncoding.SEPARATE).getBytes("UTF-8").length;
+		minimalByteLength = parsed.encode(ANSIEncoding.MINIMAL).getBytes("UTF-8").length;
+	}
+
+	static String generate(String shape, Random random){
+		StringBuilder sb = new StringBuilder(SIZE + 64);
+		if("plain".equals(shape)){
+			while(sb.length() < SIZE) appendLine(sb, random);
+		}else if("sparse".equals(shape)){
+			String[] levels = {ESC + "32mINFO ", ESC + "33mWARN ", ESC + "1;31mERROR ", ESC + "2mDEBUG "};
+			while(sb.length() < SIZE){
+				sb.append(levels[random.nextInt(levels.length)]).append(ESC).append("0m");
+				appendLine(sb, random);
+			}
+		}else if("dense".equals(shape)){
+			while(sb.length() < SIZE){
+				sb.append(ESC).append((random.nextBoolean() ? 30 : 90) + random.nextInt(8)).append('m').append((char) ('!' + random.nextInt(94)));
+				if(random.nextInt(80) == 0) sb.append('\n');
+			}
+		}else if("extended".equals(shape)){
+			while(sb.length() < SIZE){
+				if(random.nextBoolean()){
+					sb.append(ESC).append("38;5;").append(random.nextInt(256)).append('m');
+					sb.append(ESC).append("48;5;").append(random.nextInt(256)).append('m');
+				}else{
+					sb.append(ESC).append("38;2;").append(random.nextInt(256)).append(';').append(random.nextInt(256))
+						.append(';').append(random.nextInt(256)).append('m');
+					sb.append(ESC).append("48;2;").append(random.nextInt(256)).append(';').append(random.nextInt(256))
+						.append(';').append(random.nextInt(256)).append('m');
+				}
+				sb.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(12) == 0 ? '\n' : ' ');
+			}
+		}else if("longLines".equals(shape)){
+			while(sb.length() < SIZE){
+				int lineEnd = sb.length() + 10000;
+				while(sb.length() < lineEnd){
+					sb.append(ESC).append(random.nextBoolean() ? 1 : 22).append('m');
+					sb.append(ESC).append(31 + random.nextInt(7)).append('m');
+					int runEnd = sb.length() + 100 + random.nextInt(400);
+					while(sb.length() < runEnd) sb.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+				}
+				sb.append(ESC).append("0m\n");
+			}
+		}else{
+			throw new IllegalArgumentException("Unknown corpus shape: " + shape);
+		}
+		return sb.toString();
+	}
+
+	private static void appendLine(StringBuilder sb, Random random){
+		int words = 6 + random.nextInt(10);
+		for(int i = 0;i < words;++i){
+			if(i > 0) sb.append(' ');
+			sb.append(WORDS[random.nextInt(WORDS.length)]);
+		}
+		sb.append('\n');
+	}
+}
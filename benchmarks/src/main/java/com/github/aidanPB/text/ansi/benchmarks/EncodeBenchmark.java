@@ -0,0 +1,36 @@
+package com.github.aidanPB.text.ansi.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.aidanPB.text.ansi.ANSIAttributedString.ANSIEncoding;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodeBenchmark {
+
+	/**
+	 * What toString() does for a parsed string.
+	 */
+	@Benchmark
+	public String encodeSeparate(Corpus corpus, ByteCounter counter){
+		counter.bytes += corpus.separateByteLength;
+		return corpus.parsed.toString();
+	}
+
+	@Benchmark
+	public String encodeMinimal(Corpus corpus, ByteCounter counter){
+		counter.bytes += corpus.minimalByteLength;
+		return corpus.parsed.encode(ANSIEncoding.MINIMAL);
+	}
+}
@@ -0,0 +1,27 @@
+package com.github.aidanPB.text.ansi.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.aidanPB.text.ansi.ANSIAttributedString;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+	@Benchmark
+	public ANSIAttributedString fromString(Corpus corpus, ByteCounter counter){
+		counter.bytes += corpus.byteLength;
+		return ANSIAttributedString.fromString(corpus.encoded);
+	}
+}
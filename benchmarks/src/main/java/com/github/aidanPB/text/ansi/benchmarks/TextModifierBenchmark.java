@@ -0,0 +1,44 @@
+package com.github.aidanPB.text.ansi.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.aidanPB.text.ansi.TextModifier;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextModifierBenchmark {
+
+	//Fields rather than constants, so that the JIT cannot fold the calls away.
+	public TextModifier modifier = TextModifier.SET_FG_RED;
+	public int index = 208;
+	public int red = 255, green = 128, blue = 0;
+
+	@Benchmark
+	public String simple(){
+		return modifier.toANSIEscape();
+	}
+
+	@Benchmark
+	public String indexed(){
+		return TextModifier.SET_FG_EXTENDED.toANSIEscape(5, index);
+	}
+
+	@Benchmark
+	public String truecolor(){
+		return TextModifier.SET_BG_EXTENDED.toANSIEscape(2, red, green, blue);
+	}
+}
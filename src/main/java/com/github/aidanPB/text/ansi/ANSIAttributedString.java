@@ -1,16 +1,21 @@
 package com.github.aidanPB.text.ansi;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
 import java.text.AttributedString;
-import java.text.CharacterIterator;
-import java.awt.Color;
 import java.text.AttributedCharacterIterator;
 import java.text.AttributedCharacterIterator.Attribute;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import org.apache.commons.lang3.tuple.ImmutableTriple;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 public class ANSIAttributedString extends AttributedString {
 
@@ -86,15 +91,16 @@ public class ANSIAttributedString extends AttributedString {
 
 	/**
 	 * Attribute key for the foreground (text) colour of a text. Values should be
-	 * instances of java.awt.Color. the default value is null, which represents the
-	 * terminal-dependent default value.
+	 * instances of ANSIColor; java.awt.Color is also accepted when adding the
+	 * attribute, but is read back as an ANSIColor. The default value is null,
+	 * which represents the terminal-dependent default value.
 	 */
 	public static final ANSIAttribute ANSI_FG_COL = new ANSIAttribute("FOREGROUND_COLOR", ANSIAttribute.AttributeKind.FOREGROUND);
 
 	/**
 	 * Attribute key for the background colour of a text. Values should be instances
-	 * of java.awt.Color. The default value is null, which represents the
-	 * terminal-dependent default value.
+	 * of ANSIColor, as for ANSI_FG_COL. The default value is null, which represents
+	 * the terminal-dependent default value.
 	 */
 	public static final ANSIAttribute ANSI_BG_COL = new ANSIAttribute("BACKGROUND_COLOR", ANSIAttribute.AttributeKind.BACKGROUND);
 
@@ -121,743 +127,740 @@ public class ANSIAttributedString extends AttributedString {
 		NONE,FRAMED,ENCIRCLED
 	}
 
-	private static final Pattern ansipat = Pattern.compile("\\e\\[(?:(\\d{1,3})((?:;\\d{1,3})*))?([^a-zA-Z]+?)?m");
+	/**
+	 * The attribute keys, indexed by the ordinal of their kind.
+	 */
+	static final ANSIAttribute[] KEYS = {ANSI_STRENGTH, ANSI_BLINK, ANSI_FONT, ANSI_LETTER, ANSI_ULINE,
+			ANSI_OVERLN, ANSI_FG_COL, ANSI_BG_COL, ANSI_STRIKE, ANSI_REVERSE, ANSI_SURROUND};
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * The text and its ANSI attributes. The storage of the superclass is not used.
+	 */
+	private StyledText data;
+
+	/**
+	 * Holds any attributes that are not ANSIAttributes; null until there are some.
+	 */
+	private AttributedString others;
+
+	/**
+	 * For a string made by fromStringLazily and not changed since: the input, and
+	 * the start and end of each SGR sequence in it. Until the text or runs are
+	 * needed, data is null.
+	 */
+	private String source;
+	private int[] sequences;
+	private int plainLength;
+
+	/**
+	 * The run found by the last style query; only ever a hint.
+	 */
+	private int runHint;
+
+	/**
+	 * Set on the copies made by freeze(), before they are returned.
+	 */
+	private boolean frozen;
+
+	/**
+	 * For a frozen string, toString() and its UTF-8 bytes once they have been
+	 * computed. They are checked and set without locking: a String can be read
+	 * safely through a data race, and the array is published through a volatile
+	 * field. Two threads may both compute them, which only costs time.
+	 */
+	private String encoded;
+	private volatile byte[] encodedBytes;
 
 	public ANSIAttributedString(AttributedCharacterIterator text){
-		super(text);
+		this(text, text.getBeginIndex(), text.getEndIndex());
 	}
 
 	public ANSIAttributedString(AttributedCharacterIterator text, int beginIdx, int endIdx){
-		super(text, beginIdx, endIdx);
+		super("");
+		if(beginIdx < text.getBeginIndex() || endIdx > text.getEndIndex() || beginIdx > endIdx){
+			throw new IllegalArgumentException("Invalid substring range");
+		}
+		int length = endIdx - beginIdx;
+		char[] chars = new char[length];
+		StyledText.Runs runs = new StyledText.Runs(16);
+		boolean foreign = false;
+		int index = beginIdx;
+		text.setIndex(index);
+		while(index < endIdx){
+			Map<Attribute, Object> attributes = text.getAttributes();
+			runs.add(index - beginIdx, ANSIStyle.fromAttributes(attributes));
+			for(Attribute key : attributes.keySet()){
+				if(!(key instanceof ANSIAttribute)) foreign = true;
+			}
+			int limit = Math.min(text.getRunLimit(), endIdx);
+			for(char c = text.current();index < limit;c = text.next()){
+				chars[index++ - beginIdx] = c;
+			}
+		}
+		data = runs.toStyledText(chars, length);
+		if(foreign){
+			List<Attribute> keys = new ArrayList<Attribute>();
+			for(Attribute key : text.getAllAttributeKeys()){
+				if(!(key instanceof ANSIAttribute)) keys.add(key);
+			}
+			others = new AttributedString(text, beginIdx, endIdx, keys.toArray(new Attribute[keys.size()]));
+		}
 	}
 
-	private ANSIAttributedString(String str){
-		super(str);
+	ANSIAttributedString(StyledText data){
+		super("");
+		this.data = data;
 	}
 
 	public static ANSIAttributedString fromString(String source){
-		Matcher ansimat = ansipat.matcher(source);
-		StringBuffer sbuf = new StringBuffer();
-		ArrayList<ImmutableTriple<Integer, ANSIAttribute, ?>> ansicodes = new ArrayList<ImmutableTriple<Integer,ANSIAttribute,?>>();
-		int curpos = 0;
+		return new ANSIAttributedString(parse(source));
+	}
+
+	private static StyledText parse(String source){
+		ANSIMetrics metrics = ANSIMetrics.active();
+		long start = metrics == null ? 0 : System.nanoTime();
+		int length = source.length();
+		if(source.indexOf(SGRLexer.ESC) < 0){
+			StyledText plain = StyledText.of(source.toCharArray(), length);
+			if(metrics != null) metrics.parsed(length, false, 0, plain.runCount, start);
+			return plain;
+		}
+		SGRLexer lexer = new SGRLexer();
+		int sequences = 0;
+		char[] text = new char[length];
+		int textlen = 0;
+		//Runs are closed as soon as the next one starts, so this is one pass over the source.
+		StyledText.Runs runs = new StyledText.Runs(16);
+		runs.add(0, ANSIStyle.DEFAULT);
+		long style = ANSIStyle.DEFAULT;
 		int endOfLast = 0;
-		while(ansimat.find()){
-			curpos += ansimat.start() - endOfLast;
-			endOfLast = ansimat.end();
-			String code = ansimat.group(1);
-			if(code == null) code = "0";
-			int sgr = Integer.parseInt(code);
-			switch(sgr){
-			case 0:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_STRENGTH, ANSIWeight.NORMAL));
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_BLINK, ANSIBlinkRate.STEADY));
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_FONT, Byte.valueOf((byte)0)));
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_LETTER, ANSILetterform.NORMAL));
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_ULINE, false));
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_OVERLN, false));
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_STRIKE, false));
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_REVERSE, false));
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, (Color) null));
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_BG_COL, (Color) null));
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_SURROUND, ANSISurround.NONE));
-				break;
-			case 1:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_STRENGTH, ANSIWeight.BOLD));
-				break;
-			case 2:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_STRENGTH, ANSIWeight.FAINT));
-				break;
-			case 3:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_LETTER, ANSILetterform.ITALIC));
-				break;
-			case 4:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_ULINE, true));
-				break;
-			case 5:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_BLINK, ANSIBlinkRate.SLOW));
-				break;
-			case 6:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_BLINK, ANSIBlinkRate.FAST));
-				break;
-			case 7:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_REVERSE, true));
-				break;
-			case 8:
-				//Conceal seems like it'd be even rarer than Fraktur. Skip over it for now.
-				break;
-			case 9:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_STRIKE, false));
-				break;
-			case 10:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_FONT, Byte.valueOf((byte)0)));
-				break;
-			case 11:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_FONT, Byte.valueOf((byte)1)));
-				break;
-			case 12:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_FONT, Byte.valueOf((byte)2)));
-				break;
-			case 13:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_FONT, Byte.valueOf((byte)3)));
-				break;
-			case 14:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_FONT, Byte.valueOf((byte)4)));
-				break;
-			case 15:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_FONT, Byte.valueOf((byte)5)));
-				break;
-			case 16:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_FONT, Byte.valueOf((byte)6)));
-				break;
-			case 17:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_FONT, Byte.valueOf((byte)7)));
-				break;
-			case 18:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_FONT, Byte.valueOf((byte)8)));
-				break;
-			case 19:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_FONT, Byte.valueOf((byte)9)));
-				break;
-			case 20:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_LETTER, ANSILetterform.ITALIC));
-				break;
-			case 21:
-				//21 is ambiguous, so I ignore it.
-				break;
-			case 22:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_STRENGTH, ANSIWeight.NORMAL));
-				break;
-			case 23:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_LETTER, ANSILetterform.NORMAL));
-				break;
-			case 24:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_ULINE, false));
-				break;
-			case 25:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_BLINK, ANSIBlinkRate.STEADY));
-				break;
-			case 26:
-				//Noted as "Reserved"; ignore it.
-				continue;
-			case 27:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_REVERSE, false));
-				break;
-			case 28:
-				//This turns off a feature that I'm ignoring, so it should be ignored.
-				break;
-			case 29:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_STRIKE, false));
-				break;
-			case 30:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, Color.BLACK));
-				break;
-			case 31:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, Color.RED.darker()));
-				break;
-			case 32:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, Color.GREEN.darker()));
-				break;
-			case 33:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, Color.YELLOW.darker()));
-				break;
-			case 34:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, Color.BLUE.darker()));
-				break;
-			case 35:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, Color.MAGENTA.darker()));
-				break;
-			case 36:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, Color.CYAN.darker()));
-				break;
-			case 37:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, Color.LIGHT_GRAY));
-				break;
-			case 38:
-				if(ansimat.group(2) == null || ansimat.group(2).equals("")){
-					ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, (Color)null));
-					break;
-				}
-				String forecolor = ansimat.group(2).substring(1);
-				String[] forevals = forecolor.split(";");
-				if(forevals[0].equals("5")){
-					if(forevals.length == 1){
-						ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, (Color)null));
-						break;
-					}
-					int bytecolour = Integer.parseInt(forevals[1]);
-					switch(bytecolour){
-					case 0:
-						ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, Color.BLACK));
-						break;
-					case 1:
-						ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, Color.RED.darker()));
-						break;
-					case 2:
-						ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, Color.GREEN.darker()));
-						break;
-					case 3:
-						ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, Color.YELLOW.darker()));
-						break;
-					case 4:
-						ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, Color.BLUE.darker()));
-						break;
-					case 5:
-						ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, Color.MAGENTA.darker()));
-						break;
-					case 6:
-						ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, Color.CYAN.darker()));
-						break;
-					case 7:
-						ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, Color.LIGHT_GRAY));
-						break;
-					case 8:
-						ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, Color.BLACK));
-						break;
-					case 9:
-						ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, Color.RED));
-						break;
-					case 0xA:
-						ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, Color.GREEN));
-						break;
-					case 0xB:
-						ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, Color.YELLOW));
-						break;
-					case 0xC:
-						ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, Color.BLUE));
-						break;
-					case 0xD:
-						ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, Color.MAGENTA));
-						break;
-					case 0xE:
-						ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, Color.CYAN));
-						break;
-					case 0xF:
-						ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, Color.WHITE));
-						break;
-					default:
-						if(bytecolour > 0xE7){
-							float greypoint = (bytecolour - 0xE8) / 24f;
-							ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, Color.getHSBColor(0, 0, greypoint)));
-							break;
-						}
-						bytecolour -= 0x10;
-						int rbits = bytecolour / 36;
-						rbits = (rbits * 128) / 3;
-						bytecolour %= 36;
-						int gbits = bytecolour / 6;
-						gbits = (gbits * 128) / 3;
-						int bbits = bytecolour % 6;
-						bbits = (bbits * 128) / 3;
-						ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, new Color(rbits, gbits, bbits)));
-						break;
-					}
-					break;
-				}
-				if(forevals[0].equals("2")){
-					if(forevals.length < 4){
-						ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, (Color)null));
-						break;
-					}
-					int rbits = Integer.parseInt(forevals[1]);
-					if(rbits > 999){
-						rbits = 255;
-					}else if(rbits > 255){
-						float rfloat = rbits / 1000f;
-						rbits = (int)(rfloat * 256);
-					}
-					int gbits = Integer.parseInt(forevals[2]);
-					if(gbits > 999){
-						gbits = 255;
-					}else if(gbits > 255){
-						float gflt = gbits / 1000f;
-						gbits = (int)(gflt * 256);
-					}
-					int bbits = Integer.parseInt(forevals[3]);
-					if(bbits > 999){
-						bbits = 255;
-					}else if(bbits > 255){
-						float bfloat = bbits / 1000f;
-						bbits = (int)(bfloat * 256);
-					}
-					ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, new Color(rbits, gbits, bbits)));
-					break;
-				}
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, (Color)null));
-				break;
-			case 39:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, (Color)null));
-				break;
-			case 40:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_BG_COL, Color.BLACK));
-				break;
-			case 41:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_BG_COL, Color.RED.darker().darker()));
-				break;
-			case 42:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_BG_COL, Color.GREEN.darker().darker()));
-				break;
-			case 43:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_BG_COL, Color.YELLOW.darker().darker()));
-				break;
-			case 44:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_BG_COL, Color.BLUE.darker().darker()));
-				break;
-			case 45:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_BG_COL, Color.MAGENTA.darker().darker()));
-				break;
-			case 46:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_BG_COL, Color.CYAN.darker().darker()));
-				break;
-			case 47:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_BG_COL, Color.GRAY));
-				break;
-			case 48:
-				if(ansimat.group(2) == null || ansimat.group(2).equals("")){
-					ansicodes.add(ImmutableTriple.of(curpos, ANSI_BG_COL, (Color)null));
-					break;
-				}
-				String backcolor = ansimat.group(2).substring(1);
-				String[] backvals = backcolor.split(";");
-				if(backvals[0].equals("5")){
-					if(backvals.length == 1){
-						ansicodes.add(ImmutableTriple.of(curpos, ANSI_BG_COL, (Color)null));
-						break;
-					}
-					int bytecolour = Integer.parseInt(backvals[1]);
-					switch(bytecolour){
-					case 0:
-						ansicodes.add(ImmutableTriple.of(curpos, ANSI_BG_COL, Color.BLACK));
-						break;
-					case 1:
-						ansicodes.add(ImmutableTriple.of(curpos, ANSI_BG_COL, Color.RED.darker()));
-						break;
-					case 2:
-						ansicodes.add(ImmutableTriple.of(curpos, ANSI_BG_COL, Color.GREEN.darker()));
-						break;
-					case 3:
-						ansicodes.add(ImmutableTriple.of(curpos, ANSI_BG_COL, Color.YELLOW.darker()));
-						break;
-					case 4:
-						ansicodes.add(ImmutableTriple.of(curpos, ANSI_BG_COL, Color.BLUE.darker()));
-						break;
-					case 5:
-						ansicodes.add(ImmutableTriple.of(curpos, ANSI_BG_COL, Color.MAGENTA.darker()));
-						break;
-					case 6:
-						ansicodes.add(ImmutableTriple.of(curpos, ANSI_BG_COL, Color.CYAN.darker()));
-						break;
-					case 7:
-						ansicodes.add(ImmutableTriple.of(curpos, ANSI_BG_COL, Color.LIGHT_GRAY));
-						break;
-					case 8:
-						ansicodes.add(ImmutableTriple.of(curpos, ANSI_BG_COL, Color.BLACK));
-						break;
-					case 9:
-						ansicodes.add(ImmutableTriple.of(curpos, ANSI_BG_COL, Color.RED));
-						break;
-					case 0xA:
-						ansicodes.add(ImmutableTriple.of(curpos, ANSI_BG_COL, Color.GREEN));
-						break;
-					case 0xB:
-						ansicodes.add(ImmutableTriple.of(curpos, ANSI_BG_COL, Color.YELLOW));
-						break;
-					case 0xC:
-						ansicodes.add(ImmutableTriple.of(curpos, ANSI_BG_COL, Color.BLUE));
-						break;
-					case 0xD:
-						ansicodes.add(ImmutableTriple.of(curpos, ANSI_BG_COL, Color.MAGENTA));
-						break;
-					case 0xE:
-						ansicodes.add(ImmutableTriple.of(curpos, ANSI_BG_COL, Color.CYAN));
-						break;
-					case 0xF:
-						ansicodes.add(ImmutableTriple.of(curpos, ANSI_BG_COL, Color.WHITE));
-						break;
-					default:
-						if(bytecolour > 0xE7){
-							float greypoint = (bytecolour - 0xE8) / 24f;
-							ansicodes.add(ImmutableTriple.of(curpos, ANSI_BG_COL, Color.getHSBColor(0, 0, greypoint)));
-							break;
-						}
-						bytecolour -= 0x10;
-						int rbits = bytecolour / 36;
-						rbits = (rbits * 128) / 3;
-						bytecolour %= 36;
-						int gbits = bytecolour / 6;
-						gbits = (gbits * 128) / 3;
-						int bbits = bytecolour % 6;
-						bbits = (bbits * 128) / 3;
-						ansicodes.add(ImmutableTriple.of(curpos, ANSI_BG_COL, new Color(rbits, gbits, bbits)));
-						break;
-					}
-					break;
-				}
-				if(backvals[0].equals("2")){
-					if(backvals.length < 4){
-						ansicodes.add(ImmutableTriple.of(curpos, ANSI_BG_COL, (Color)null));
-						break;
-					}
-					int rbits = Integer.parseInt(backvals[1]);
-					if(rbits > 999){
-						rbits = 255;
-					}else if(rbits > 255){
-						float rfloat = rbits / 1000f;
-						rbits = (int)(rfloat * 256);
-					}
-					int gbits = Integer.parseInt(backvals[2]);
-					if(gbits > 999){
-						gbits = 255;
-					}else if(gbits > 255){
-						float gflt = gbits / 1000f;
-						gbits = (int)(gflt * 256);
-					}
-					int bbits = Integer.parseInt(backvals[3]);
-					if(bbits > 999){
-						bbits = 255;
-					}else if(bbits > 255){
-						float bfloat = bbits / 1000f;
-						bbits = (int)(bfloat * 256);
-					}
-					ansicodes.add(ImmutableTriple.of(curpos, ANSI_BG_COL, new Color(rbits, gbits, bbits)));
-					break;
-				}
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_BG_COL, (Color)null));
-				break;
-			case 49:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_BG_COL, (Color)null));
-				break;
-			case 50:
-				//Reserved and ignored.
-				break;
-			case 51:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_SURROUND, ANSISurround.FRAMED));
-				break;
-			case 52:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_SURROUND, ANSISurround.ENCIRCLED));
-				break;
-			case 53:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_OVERLN, true));
-				break;
-			case 54:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_SURROUND, ANSISurround.NONE));
-				break;
-			case 55:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_OVERLN, false));
-				break;
-			case 90:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, Color.BLACK));
-				break;
-			case 91:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, Color.RED));
-				break;
-			case 92:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, Color.GREEN));
-				break;
-			case 93:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, Color.YELLOW));
-				break;
-			case 94:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, Color.BLUE));
-				break;
-			case 95:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, Color.MAGENTA));
-				break;
-			case 96:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, Color.CYAN));
-				break;
-			case 97:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, Color.WHITE));
-				break;
-			case 100:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, Color.BLACK));
-				break;
-			case 101:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, Color.RED));
-				break;
-			case 102:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, Color.GREEN));
-				break;
-			case 103:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, Color.YELLOW));
-				break;
-			case 104:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, Color.BLUE));
-				break;
-			case 105:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, Color.MAGENTA));
-				break;
-			case 106:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, Color.CYAN));
-				break;
-			case 107:
-				ansicodes.add(ImmutableTriple.of(curpos, ANSI_FG_COL, Color.WHITE));
-				break;
-			default:
-				//ignore anything else for now.
-				break;
+		while(lexer.find(source, endOfLast, length)){
+			source.getChars(endOfLast, lexer.start, text, textlen);
+			textlen += lexer.start - endOfLast;
+			endOfLast = lexer.end;
+			style = SGRDecoder.decode(style, lexer, metrics);
+			runs.add(textlen, style);
+			++sequences;
+		}
+		source.getChars(endOfLast, length, text, textlen);
+		textlen += length - endOfLast;
+		StyledText result = runs.toStyledText(text, textlen);
+		if(metrics != null) metrics.parsed(length, false, sequences, result.runCount, start);
+		return result;
+	}
+
+	/**
+	 * Returns a string that only finds where the SGR sequences of the source are.
+	 * The plain text and the runs are made the first time they are needed, so
+	 * {@link #length()} and {@link #getPlainText()} are cheap, and a string that is
+	 * only passed on costs little more than the source itself.
+	 * <p>
+	 * Until the string is changed, toString(), writeTo(Appendable),
+	 * writeTo(Writer) and newByteEncoder() write the source exactly as it was
+	 * given, rather than the sequences that toString() normally writes. The
+	 * methods that take an encoding always write those sequences; a source with
+	 * none in it is its own encoding, so they write it as it is, without parsing
+	 * it.
+	 */
+	public static ANSIAttributedString fromStringLazily(String source){
+		int length = source.length();
+		int[] sequences = new int[8];
+		int count = 0;
+		int plainLength = length;
+		int esc = source.indexOf(SGRLexer.ESC);
+		while(esc >= 0){
+			int end = SGRLexer.sequenceEnd(source, esc, length);
+			if(end >= 0){
+				if(count == sequences.length) sequences = Arrays.copyOf(sequences, count * 2);
+				sequences[count++] = esc;
+				sequences[count++] = end;
+				plainLength -= end - esc;
+				esc = source.indexOf(SGRLexer.ESC, end);
+			}else{
+				esc = source.indexOf(SGRLexer.ESC, esc + 1);
 			}
-			ansimat.appendReplacement(sbuf, "");
-		}
-		ansimat.appendTail(sbuf);
-		ANSIAttributedString ansistr = new ANSIAttributedString(sbuf.toString());
-		for(int i = 0;i < ansicodes.size();++i){
-			ImmutableTriple<Integer, ANSIAttribute, ?> triple = ansicodes.get(i);
-			if(triple.getLeft() == sbuf.length()) break;
-			int attribend = triple.getLeft() - 1;
-			for(int j = i + 1;j < ansicodes.size();++j){
-				ImmutableTriple<Integer, ANSIAttribute, ?> nexttrip = ansicodes.get(j);
-				if(nexttrip.getMiddle().equals(triple.getMiddle())){
-					attribend = nexttrip.getLeft();
-					break;
-				}
+		}
+		ANSIAttributedString string = new ANSIAttributedString((StyledText) null);
+		string.source = source;
+		string.sequences = Arrays.copyOf(sequences, count);
+		string.plainLength = plainLength;
+		return string;
+	}
+
+	/**
+	 * Returns the source if this is an unchanged lazy string without any
+	 * sequences, or null.
+	 */
+	private String plainSource(){
+		return source != null && sequences.length == 0 ? source : null;
+	}
+
+	StyledText data(){
+		if(data == null) data = parse(source);
+		return data;
+	}
+
+	/**
+	 * Returns the length of the plain text.
+	 */
+	public int length(){
+		return data == null ? plainLength : data.length;
+	}
+
+	/**
+	 * Returns the plain text, without its attributes.
+	 */
+	public String getPlainText(){
+		if(data != null) return new String(data.text, data.offset, data.length);
+		if(sequences.length == 0) return source;
+		char[] text = new char[plainLength];
+		int textlen = 0;
+		int pos = 0;
+		for(int i = 0;i < sequences.length;i += 2){
+			source.getChars(pos, sequences[i], text, textlen);
+			textlen += sequences[i] - pos;
+			pos = sequences[i + 1];
+		}
+		source.getChars(pos, source.length(), text, textlen);
+		return new String(text);
+	}
+
+	/**
+	 * Parses the source as {@link #fromString(String)} does, splitting it at line
+	 * breaks into chunks that are parsed by the given executor. The calling thread
+	 * waits for the chunks; inputs too small to be worth splitting are parsed on
+	 * it directly.
+	 */
+	public static ANSIAttributedString fromString(String source, ExecutorService executor) throws InterruptedException{
+		return ParallelParser.parse(source, executor);
+	}
+
+	/**
+	 * Returns the parsed source from the given cache, parsing it and adding it to
+	 * the cache if it is not there. The result is frozen, and otherwise the same
+	 * as that of fromString(source).
+	 */
+	public static ANSIAttributedString fromString(String source, ANSIParseCache cache){
+		return cache.get(source);
+	}
+
+	/**
+	 * Returns the ANSI attributes of the char at the given index, packed into a
+	 * long as described in {@link ANSIStyle}. The run is found by binary search,
+	 * and nothing is allocated.
+	 */
+	public long styleAt(int index){
+		StyledText data = data();
+		checkIndex(index, data);
+		return data.runStyle(runAt(data, index));
+	}
+
+	/**
+	 * Returns the start of the run of chars around the given index that have the
+	 * same ANSI attributes. Other attributes are not taken into account.
+	 */
+	public int runStartAt(int index){
+		StyledText data = data();
+		checkIndex(index, data);
+		return data.runStart(runAt(data, index));
+	}
+
+	/**
+	 * Returns the end of the run of chars around the given index that have the
+	 * same ANSI attributes. Other attributes are not taken into account.
+	 */
+	public int runLimitAt(int index){
+		StyledText data = data();
+		checkIndex(index, data);
+		return data.runLimit(runAt(data, index));
+	}
+
+	/**
+	 * Returns the run that holds the given index. Queries tend to be about the
+	 * same or neighbouring runs, so the last run found is tried first.
+	 */
+	private int runAt(StyledText data, int index){
+		int run = runHint;
+		if(run >= data.runCount || index < data.runStart(run) || index >= data.runLimit(run)){
+			if(run + 1 < data.runCount && index >= data.runStart(run + 1) && index < data.runLimit(run + 1)){
+				++run;
+			}else{
+				run = data.runIndex(index);
 			}
-			if(attribend == triple.getLeft()) continue;
-			if(attribend < triple.getLeft()) attribend = sbuf.length() - 1;
-			ansistr.addAttribute(triple.getMiddle(), triple.getRight(), triple.getLeft(), attribend);
+			runHint = run;
 		}
-		return ansistr;
+		return run;
+	}
+
+	private static void checkIndex(int index, StyledText data){
+		if(index < 0 || index >= data.length) throw new IllegalArgumentException("Invalid index");
+	}
+
+	/**
+	 * Returns a copy of this string that cannot be changed, or this string if it
+	 * is already frozen. The copy shares the text and runs of this one, which are
+	 * never changed in place. A frozen string can be used by any number of
+	 * threads once it has been published to them, and encodes its toString() and
+	 * encodeUTF8() results only once. writeTo and newByteEncoder() without an
+	 * encoding write that same toString() result. The add methods throw
+	 * UnsupportedOperationException. Its slices are not frozen.
+	 */
+	public ANSIAttributedString freeze(){
+		if(frozen) return this;
+		ANSIAttributedString copy = new ANSIAttributedString(data);
+		copy.source = source;
+		copy.sequences = sequences;
+		copy.plainLength = plainLength;
+		if(others != null) copy.others = new AttributedString(others.getIterator());
+		copy.frozen = true;
+		return copy;
+	}
+
+	public boolean isFrozen(){
+		return frozen;
+	}
+
+	/**
+	 * Returns a range of this string as a new one that shares the text and runs of
+	 * this one instead of copying them, so that it takes time logarithmic in the
+	 * number of runs. Later changes to either string are not seen by the other.
+	 * The slice keeps all of this string's text in memory. Attributes that are
+	 * not ANSIAttributes, if there are any, are copied.
+	 */
+	public ANSIAttributedString slice(int beginIndex, int endIndex){
+		if(beginIndex < 0 || endIndex > length() || beginIndex > endIndex){
+			throw new IllegalArgumentException("Invalid substring range");
+		}
+		ANSIAttributedString slice = new ANSIAttributedString(data().slice(beginIndex, endIndex));
+		if(others != null && beginIndex < endIndex){
+			slice.others = new AttributedString(others.getIterator(null, beginIndex, endIndex));
+		}
+		return slice;
+	}
+
+	public void addAttribute(Attribute attribute, Object value){
+		if(attribute == null) throw new NullPointerException();
+		if(length() == 0) throw new IllegalArgumentException("Can't add attribute to 0-length text");
+		putAttribute(attribute, value, 0, length());
+	}
+
+	public void addAttribute(Attribute attribute, Object value, int beginIndex, int endIndex){
+		if(attribute == null) throw new NullPointerException();
+		if(beginIndex < 0 || endIndex > length() || beginIndex >= endIndex){
+			throw new IllegalArgumentException("Invalid substring range");
+		}
+		putAttribute(attribute, value, beginIndex, endIndex);
+	}
+
+	public void addAttributes(Map<? extends Attribute, ?> attributes, int beginIndex, int endIndex){
+		if(attributes == null) throw new NullPointerException();
+		if(beginIndex < 0 || endIndex > length() || beginIndex > endIndex){
+			throw new IllegalArgumentException("Invalid substring range");
+		}
+		if(beginIndex == endIndex){
+			if(attributes.isEmpty()) return;
+			throw new IllegalArgumentException("Can't add attribute to 0-length text");
+		}
+		for(Entry<? extends Attribute, ?> entry : attributes.entrySet()){
+			putAttribute(entry.getKey(), entry.getValue(), beginIndex, endIndex);
+		}
+	}
+
+	/**
+	 * Sets an attribute over a range. The value of an ANSIAttribute must be of the
+	 * type it documents, or null for its default; any other value is rejected with
+	 * an IllegalArgumentException, as ANSIStyle.withAttribute does, and the string
+	 * is left unchanged.
+	 */
+	private void putAttribute(Attribute attribute, Object value, int beginIndex, int endIndex){
+		if(frozen) throw new UnsupportedOperationException("Frozen string");
+		StyledText data = data();
+		if(attribute instanceof ANSIAttribute){
+			data = data.withAttribute(((ANSIAttribute) attribute).getKind(), value, beginIndex, endIndex);
+			source = null;
+			sequences = null;
+			this.data = data;
+			return;
+		}
+		source = null;
+		sequences = null;
+		if(others == null) others = new AttributedString(new String(data.text, data.offset, data.length));
+		others.addAttribute(attribute, value, beginIndex, endIndex);
+	}
+
+	public AttributedCharacterIterator getIterator(){
+		return getIterator(null, 0, length());
+	}
+
+	public AttributedCharacterIterator getIterator(Attribute[] attributes){
+		return getIterator(attributes, 0, length());
+	}
+
+	public AttributedCharacterIterator getIterator(Attribute[] attributes, int beginIndex, int endIndex){
+		if(beginIndex < 0 || endIndex > length() || beginIndex > endIndex){
+			throw new IllegalArgumentException("Invalid substring range");
+		}
+		StyledText data = data();
+		AttributedCharacterIterator otherIter = others == null ? null : others.getIterator(null, beginIndex, endIndex);
+		if(attributes == null){
+			return new StyledTextIterator(data, beginIndex, endIndex, StyledTextIterator.ALL_KINDS, otherIter, null);
+		}
+		Set<Attribute> otherKeys = new HashSet<Attribute>();
+		for(Attribute key : attributes){
+			if(!(key instanceof ANSIAttribute)) otherKeys.add(key);
+		}
+		return new StyledTextIterator(data, beginIndex, endIndex,
+				StyledTextIterator.maskOf(Arrays.asList(attributes)), otherIter, otherKeys);
+	}
+
+	/**
+	 * The ways in which encode() can write the SGR sequences between runs.
+	 */
+	public enum ANSIEncoding{
+		/**
+		 * One sequence for each kind of attribute that changes, as toString() writes.
+		 */
+		SEPARATE,
+		/**
+		 * One sequence per run holding only the changed parameters, or a reset
+		 * ("0") and the parameters still needed after it, whichever is shorter.
+		 */
+		MINIMAL
+	}
+
+	/**
+	 * The sets of colours that encode() can be limited to. Colours outside the set
+	 * are written as the nearest colour in it.
+	 */
+	public enum ANSIColorDepth{
+		/**
+		 * Any 24-bit colour, using "38;2;r;g;b" where no shorter code selects it.
+		 */
+		TRUECOLOR,
+		/**
+		 * The 256-colour palette ("38;5;n") and the basic and bright colours.
+		 */
+		ANSI256,
+		/**
+		 * The basic and bright colours (codes 30-37, 90-97, 40-47 and 100-107).
+		 */
+		ANSI16,
+		/**
+		 * No colours; colour attributes are left out.
+		 */
+		NONE
 	}
 
 	public String toString(){
-		AttributedCharacterIterator citer = getIterator();
-		StringBuffer sbuf = new StringBuffer(citer.getEndIndex());
-		char currch = citer.first();
-		while(currch != CharacterIterator.DONE){
-			for(Entry<Attribute, Object> entry : citer.getAttributes().entrySet()){
-				if(!(entry.getKey() instanceof ANSIAttribute))continue;
-				if(citer.getRunStart(entry.getKey()) == citer.getIndex()){
-					ANSIAttribute key = (ANSIAttribute) entry.getKey();
-					Object attrval = entry.getValue();
-					int code;
-					Color colval;
-					switch(key.getKind()){
-					case BACKGROUND:
-						if(attrval != null && !(attrval instanceof Color)) attrval = null;
-						if(attrval == null){
-							sbuf.append("\033[49m");
-							break;
-						}
-						colval = (Color) attrval;
-						if(colval.equals(Color.BLACK)){
-							sbuf.append("\033[40m");
-							break;
-						}
-						if(colval.equals(Color.GRAY)){
-							sbuf.append("\033[47m");
-							break;
-						}
-						if(colval.equals(Color.RED.darker().darker())){
-							sbuf.append("\033[41m");
-							break;
-						}
-						if(colval.equals(Color.GREEN.darker().darker())){
-							sbuf.append("\033[42m");
-							break;
-						}
-						if(colval.equals(Color.YELLOW.darker().darker())){
-							sbuf.append("\033[43m");
-							break;
-						}
-						if(colval.equals(Color.BLUE.darker().darker())){
-							sbuf.append("\033[44m");
-							break;
-						}
-						if(colval.equals(Color.MAGENTA.darker().darker())){
-							sbuf.append("\033[45m");
-							break;
-						}
-						if(colval.equals(Color.CYAN.darker().darker())){
-							sbuf.append("\033[46m");
-							break;
-						}
-						if(colval.equals(Color.RED)){
-							sbuf.append("\033[101m");
-							break;
-						}
-						if(colval.equals(Color.GREEN)){
-							sbuf.append("\033[102m");
-							break;
-						}
-						if(colval.equals(Color.YELLOW)){
-							sbuf.append("\033[103m");
-							break;
-						}
-						if(colval.equals(Color.BLUE)){
-							sbuf.append("\033[104m");
-							break;
-						}
-						if(colval.equals(Color.MAGENTA)){
-							sbuf.append("\033[105m");
-							break;
-						}
-						if(colval.equals(Color.CYAN)){
-							sbuf.append("\033[106m");
-							break;
-						}
-						if(colval.equals(Color.WHITE)){
-							sbuf.append("\033[107m");
-							break;
-						}
-						sbuf.append("\033[").append(48).append(';').append(2).append(';').append(colval.getRed())
-								.append(';').append(colval.getGreen()).append(";").append(colval.getBlue()).append("m");
-						break;
-					case BLINK:
-						if(!(attrval instanceof ANSIBlinkRate)) attrval = ANSIBlinkRate.STEADY;
-						switch((ANSIBlinkRate) attrval){
-						case FAST:
-							code = 6;
-							break;
-						case SLOW:
-							code = 5;
-							break;
-						default:
-							code = 25;
-							break;
-						}
-						sbuf.append("\033[").append(code).append("m");
-						break;
-					case FONT:
-						if(!(attrval instanceof Byte)) attrval = (byte) 0;
-						code = 10 + (Byte) attrval;
-						sbuf.append("\033[").append(code).append("m");
-						break;
-					case FOREGROUND:
-						if(attrval != null && !(attrval instanceof Color)) attrval = null;
-						if(attrval == null){
-							sbuf.append("\033[49m");
-							break;
-						}
-						colval = (Color) attrval;
-						if(colval.equals(Color.BLACK)){
-							sbuf.append("\033[30m");
-							break;
-						}
-						if(colval.equals(Color.LIGHT_GRAY)){
-							sbuf.append("\033[37m");
-							break;
-						}
-						if(colval.equals(Color.RED.darker())){
-							sbuf.append("\033[31m");
-							break;
-						}
-						if(colval.equals(Color.GREEN.darker())){
-							sbuf.append("\033[32m");
-							break;
-						}
-						if(colval.equals(Color.YELLOW.darker())){
-							sbuf.append("\033[33m");
-							break;
-						}
-						if(colval.equals(Color.BLUE.darker())){
-							sbuf.append("\033[34m");
-							break;
-						}
-						if(colval.equals(Color.MAGENTA.darker())){
-							sbuf.append("\033[35m");
-							break;
-						}
-						if(colval.equals(Color.CYAN.darker())){
-							sbuf.append("\033[36m");
-							break;
-						}
-						if(colval.equals(Color.RED)){
-							sbuf.append("\033[91m");
-							break;
-						}
-						if(colval.equals(Color.GREEN)){
-							sbuf.append("\033[92m");
-							break;
-						}
-						if(colval.equals(Color.YELLOW)){
-							sbuf.append("\033[93m");
-							break;
-						}
-						if(colval.equals(Color.BLUE)){
-							sbuf.append("\033[94m");
-							break;
-						}
-						if(colval.equals(Color.MAGENTA)){
-							sbuf.append("\033[95m");
-							break;
-						}
-						if(colval.equals(Color.CYAN)){
-							sbuf.append("\033[96m");
-							break;
-						}
-						if(colval.equals(Color.WHITE)){
-							sbuf.append("\033[97m");
-							break;
-						}
-						sbuf.append("\033[").append(38).append(';').append(2).append(';').append(colval.getRed())
-								.append(';').append(colval.getGreen()).append(";").append(colval.getBlue()).append("m");
-						break;
-					case LETTER:
-						if(!(attrval instanceof ANSILetterform)) attrval = ANSILetterform.NORMAL;
-						switch((ANSILetterform) attrval){
-						case ITALIC:
-							code = 3;
-							break;
-						case FRAKTUR:
-							code = 20;
-							break;
-						default:
-							code = 23;
-							break;
-						}
-						sbuf.append("\033[").append(code).append("m");
-						break;
-					case OVERLN:
-						if(!(attrval instanceof Boolean)) attrval = false;
-						sbuf.append((Boolean) attrval?"\033[53m":"\033[55m");
-						break;
-					case REVERSE:
-						if(!(attrval instanceof Boolean)) attrval = false;
-						sbuf.append((Boolean) attrval?"\033[7m":"\033[27m");
-						break;
-					case STRENGTH:
-						if(!(attrval instanceof ANSIWeight)) attrval = ANSIWeight.NORMAL;
-						switch((ANSIWeight) attrval){
-						case BOLD:
-							code = 1;
-							break;
-						case FAINT:
-							code = 2;
-							break;
-						default:
-							code = 22;
-							break;
-						}
-						sbuf.append("\033[").append(code).append("m");
-						break;
-					case STRIKE:
-						if(!(attrval instanceof Boolean)) attrval = false;
-						sbuf.append((Boolean) attrval?"\033[9m":"\033[29");
-						break;
-					case SURROUND:
-						if(!(attrval instanceof ANSISurround)) attrval = ANSISurround.NONE;
-						switch((ANSISurround) attrval){
-						case ENCIRCLED:
-							code = 52;
-							break;
-						case FRAMED:
-							code = 51;
-							break;
-						default:
-							code = 54;
-							break;
-						}
-						sbuf.append("\033[").append(code).append("m");
-						break;
-					case UNDERLN:
-						if(!(attrval instanceof Boolean)) attrval = false;
-						sbuf.append((Boolean) attrval?"\033[4m":"\033[24m");
-						break;
-					}
+		if(source != null) return source;
+		if(!frozen) return encode(ANSIEncoding.SEPARATE);
+		String result = encoded;
+		if(result == null) encoded = result = encode(ANSIEncoding.SEPARATE);
+		return result;
+	}
+
+	/**
+	 * Returns the characters of toString() encoded as UTF-8, in a read-only buffer
+	 * of its own. A frozen string encodes them once and wraps the same bytes
+	 * each time.
+	 */
+	public ByteBuffer encodeUTF8(){
+		byte[] bytes = encodedBytes;
+		if(bytes == null){
+			bytes = toString().getBytes(UTF8);
+			if(frozen) encodedBytes = bytes;
+		}
+		return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+	}
+
+	/**
+	 * Returns the text with the SGR sequences that select its ANSI attributes.
+	 */
+	public String encode(ANSIEncoding encoding){
+		return encode(encoding, ANSIColorDepth.TRUECOLOR);
+	}
+
+	/**
+	 * Returns the text with the SGR sequences that select its ANSI attributes, with
+	 * the colours reduced to the given depth.
+	 */
+	public String encode(ANSIEncoding encoding, ANSIColorDepth depth){
+		String plain = plainSource();
+		if(plain != null) return plain;
+		ANSIMetrics metrics = ANSIMetrics.active();
+		long start = metrics == null ? 0 : System.nanoTime();
+		StyledText text = data();
+		StringBuilder sbuf = new StringBuilder(text.length + text.runCount * 8);
+		long style = ANSIStyle.DEFAULT;
+		for(int run = 0;run < text.runCount;++run){
+			long next = ColorQuantizer.reduce(text.runStyle(run), depth);
+			SGREncoder.appendChanges(sbuf, style, next, encoding);
+			style = next;
+			sbuf.append(text.text, text.offset + text.runStart(run), text.runLimit(run) - text.runStart(run));
+		}
+		String result = sbuf.toString();
+		if(metrics != null) metrics.encoded(text.length, result.length(), false, text.runCount, System.nanoTime() - start);
+		return result;
+	}
+
+	/**
+	 * Writes the same characters as toString(), without building them into a
+	 * String first.
+	 */
+	public void writeTo(Appendable out) throws IOException{
+		if(source != null || frozen){
+			out.append(toString());
+			return;
+		}
+		writeTo(out, ANSIEncoding.SEPARATE);
+	}
+
+	/**
+	 * Writes the same characters as encode(encoding), without building them into a
+	 * String first. Only the sequences between two runs are buffered.
+	 */
+	public void writeTo(Appendable out, ANSIEncoding encoding) throws IOException{
+		writeTo(out, encoding, ANSIColorDepth.TRUECOLOR);
+	}
+
+	/**
+	 * Writes the same characters as encode(encoding, depth), without building them
+	 * into a String first.
+	 */
+	public void writeTo(Appendable out, ANSIEncoding encoding, ANSIColorDepth depth) throws IOException{
+		String plain = plainSource();
+		if(plain != null){
+			out.append(plain);
+			return;
+		}
+		ANSIMetrics metrics = ANSIMetrics.active();
+		long start = metrics == null ? 0 : System.nanoTime();
+		StyledText text = data();
+		long written = text.length;
+		CharSequence chars = CharBuffer.wrap(text.text, text.offset, text.length);
+		StringBuilder sbuf = new StringBuilder(64);
+		long style = ANSIStyle.DEFAULT;
+		for(int run = 0;run < text.runCount;++run){
+			sbuf.setLength(0);
+			long next = ColorQuantizer.reduce(text.runStyle(run), depth);
+			SGREncoder.appendChanges(sbuf, style, next, encoding);
+			style = next;
+			written += sbuf.length();
+			out.append(sbuf);
+			out.append(chars, text.runStart(run), text.runLimit(run));
+		}
+		if(metrics != null) metrics.encoded(text.length, written, false, text.runCount, System.nanoTime() - start);
+	}
+
+	public void writeTo(Writer out) throws IOException{
+		if(source != null || frozen){
+			out.write(toString());
+			return;
+		}
+		writeTo(out, ANSIEncoding.SEPARATE);
+	}
+
+	/**
+	 * As writeTo(Appendable, ANSIEncoding), but writes straight from the character
+	 * arrays.
+	 */
+	public void writeTo(Writer out, ANSIEncoding encoding) throws IOException{
+		writeTo(out, encoding, ANSIColorDepth.TRUECOLOR);
+	}
+
+	public void writeTo(Writer out, ANSIEncoding encoding, ANSIColorDepth depth) throws IOException{
+		String plain = plainSource();
+		if(plain != null){
+			out.write(plain);
+			return;
+		}
+		ANSIMetrics metrics = ANSIMetrics.active();
+		long start = metrics == null ? 0 : System.nanoTime();
+		StyledText text = data();
+		long written = text.length;
+		StringBuilder sbuf = new StringBuilder(64);
+		char[] cbuf = new char[64];
+		long style = ANSIStyle.DEFAULT;
+		for(int run = 0;run < text.runCount;++run){
+			sbuf.setLength(0);
+			long next = ColorQuantizer.reduce(text.runStyle(run), depth);
+			SGREncoder.appendChanges(sbuf, style, next, encoding);
+			style = next;
+			int seqlen = sbuf.length();
+			if(seqlen > cbuf.length) cbuf = new char[Math.max(seqlen, cbuf.length * 2)];
+			sbuf.getChars(0, seqlen, cbuf, 0);
+			written += seqlen;
+			out.write(cbuf, 0, seqlen);
+			out.write(text.text, text.offset + text.runStart(run), text.runLimit(run) - text.runStart(run));
+		}
+		if(metrics != null) metrics.encoded(text.length, written, false, text.runCount, System.nanoTime() - start);
+	}
+
+	/**
+	 * Returns an encoder that writes the same characters as toString() into byte
+	 * buffers as UTF-8. For a frozen string, it writes toString() itself.
+	 */
+	public ANSIByteEncoder newByteEncoder(){
+		if(source != null || frozen) return new ANSIByteEncoder(toString());
+		return newByteEncoder(ANSIEncoding.SEPARATE);
+	}
+
+	/**
+	 * Returns an encoder that writes the same characters as encode(encoding) into
+	 * byte buffers as UTF-8. Later changes to this string do not affect it.
+	 */
+	public ANSIByteEncoder newByteEncoder(ANSIEncoding encoding){
+		return newByteEncoder(encoding, ANSIColorDepth.TRUECOLOR);
+	}
+
+	/**
+	 * Returns an encoder that writes the same characters as encode(encoding, depth)
+	 * into byte buffers as UTF-8.
+	 */
+	public ANSIByteEncoder newByteEncoder(ANSIEncoding encoding, ANSIColorDepth depth){
+		String plain = plainSource();
+		if(plain != null) return new ANSIByteEncoder(plain);
+		return new ANSIByteEncoder(data(), encoding, depth);
+	}
+
+	/**
+	 * Builds an ANSIAttributedString by appending text. The text and the runs are
+	 * kept in arrays that grow by doubling, and a run is merged into the one
+	 * before it when they have the same style, so each append costs time in
+	 * proportion to what it adds. build() hands the arrays to the result without
+	 * copying them.
+	 * <p>
+	 * Text appended as a CharSequence takes the current style, which pushStyle and
+	 * popStyle change. A builder can go on being used after build(): the strings
+	 * already built only see the part of the arrays that was filled when they
+	 * were, and appending never writes there.
+	 */
+	public static final class Builder{
+
+		private char[] text;
+		private int length;
+		private final StyledText.Runs runs = new StyledText.Runs(16);
+		private long style = ANSIStyle.DEFAULT;
+		private long[] stack = new long[8];
+		private int depth;
+
+		public Builder(){
+			this(64);
+		}
+
+		public Builder(int capacity){
+			if(capacity < 0) throw new IllegalArgumentException("Negative capacity");
+			text = new char[Math.max(capacity, 1)];
+		}
+
+		/**
+		 * Returns the length of the text appended so far.
+		 */
+		public int length(){
+			return length;
+		}
+
+		/**
+		 * Returns the current style, packed as described in {@link ANSIStyle}.
+		 */
+		public long getStyle(){
+			return style;
+		}
+
+		/**
+		 * Makes the given packed style the current one, until the matching popStyle.
+		 */
+		public Builder pushStyle(long style){
+			if(depth == stack.length) stack = Arrays.copyOf(stack, depth * 2);
+			stack[depth++] = this.style;
+			this.style = style;
+			return this;
+		}
+
+		/**
+		 * Makes the current style with one attribute changed the current one, until
+		 * the matching popStyle.
+		 */
+		public Builder pushAttribute(ANSIAttribute attribute, Object value){
+			return pushStyle(ANSIStyle.withAttribute(style, attribute.getKind(), value));
+		}
+
+		/**
+		 * Restores the style that was current before the last pushStyle.
+		 * @throws IllegalStateException if there is no style to restore.
+		 */
+		public Builder popStyle(){
+			if(depth == 0) throw new IllegalStateException("No style to pop");
+			style = stack[--depth];
+			return this;
+		}
+
+		/**
+		 * Appends text in the current style.
+		 */
+		public Builder append(CharSequence chars){
+			return append(chars, style);
+		}
+
+		/**
+		 * Appends text in the given packed style, leaving the current style as it is.
+		 */
+		public Builder append(CharSequence chars, long style){
+			int count = chars.length();
+			if(count == 0) return this;
+			ensureCapacity(count);
+			if(chars instanceof String){
+				((String) chars).getChars(0, count, text, length);
+			}else{
+				for(int i = 0;i < count;++i){
+					text[length + i] = chars.charAt(i);
 				}
 			}
-			sbuf.append(currch);
-			currch = citer.next();
+			runs.add(length, style);
+			length += count;
+			return this;
+		}
+
+		public Builder append(char c){
+			return append(c, style);
+		}
+
+		public Builder append(char c, long style){
+			ensureCapacity(1);
+			runs.add(length, style);
+			text[length++] = c;
+			return this;
+		}
+
+		/**
+		 * Appends styled text with its own ANSI attributes; the current style does
+		 * not apply to it. Other attributes are not kept.
+		 */
+		public Builder append(ANSIAttributedString string){
+			StyledText data = string.data();
+			if(data.length == 0) return this;
+			ensureCapacity(data.length);
+			System.arraycopy(data.text, data.offset, text, length, data.length);
+			for(int run = 0;run < data.runCount;++run){
+				runs.add(length + data.runStart(run), data.runStyle(run));
+			}
+			length += data.length;
+			return this;
+		}
+
+		/**
+		 * Returns a string of everything appended so far.
+		 */
+		public ANSIAttributedString build(){
+			return new ANSIAttributedString(runs.toStyledText(text, length));
+		}
+
+		private void ensureCapacity(int count){
+			if(count > text.length - length){
+				text = Arrays.copyOf(text, Math.max(length + count, text.length * 2));
+			}
 		}
-		return sbuf.toString();
 	}
 }
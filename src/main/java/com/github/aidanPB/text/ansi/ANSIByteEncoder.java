@@ -0,0 +1,232 @@
+package com.github.aidanPB.text.ansi;
+
+import java.nio.ByteBuffer;
+
+import com.github.aidanPB.text.ansi.ANSIAttributedString.ANSIColorDepth;
+import com.github.aidanPB.text.ansi.ANSIAttributedString.ANSIEncoding;
+
+/**
+ * Writes an ANSIAttributedString, SGR sequences included, into byte buffers as
+ * UTF-8, without building a String or a char array first. The output is the
+ * same as encoding the result of ANSIAttributedString.encode with UTF-8;
+ * unpaired surrogates become '?', as String.getBytes makes them.
+ * <p>
+ * The encoder can be resumed: when the buffer fills, {@link #encode(ByteBuffer)}
+ * returns false, and the next call carries on where it stopped, even in the
+ * middle of a sequence or a multi-byte character. A typical loop is:
+ * <pre>
+ * ANSIByteEncoder encoder = string.newByteEncoder();
+ * boolean done;
+ * do{
+ * 	done = encoder.encode(buffer);
+ * 	buffer.flip();
+ * 	while(buffer.hasRemaining()) channel.write(buffer);
+ * 	buffer.clear();
+ * }while(!done);
+ * </pre>
+ * An encoder is not thread-safe.
+ */
+public class ANSIByteEncoder {
+
+	private static final int CHUNK_SIZE = 512;
+
+	private final StyledText text;
+	private final ANSIEncoding encoding;
+	private final ANSIColorDepth depth;
+	/*
+	 * For an encoder that writes a String as it is, with no runs: the String, and
+	 * how much of it has been copied into chars, which then holds one window of
+	 * it at a time. Otherwise chars is the text's own array.
+	 */
+	private final String plain;
+	private int plainPos;
+	private final char[] chars;
+	private final StringBuilder sequence = new StringBuilder(64);
+	private final byte[] chunk = new byte[CHUNK_SIZE];
+	private byte[] pending = new byte[64];
+	private int pendingPos;
+	private int pendingLength;
+	private long style = ANSIStyle.DEFAULT;
+	private int run = -1;
+	private int pos;
+	private int limit;
+	/*
+	 * Set while the metrics are enabled: the bytes written and the time spent so
+	 * far, which are counted once everything has been written.
+	 */
+	private ANSIMetrics metrics;
+	private long written;
+	private long nanos;
+
+	ANSIByteEncoder(StyledText text, ANSIEncoding encoding, ANSIColorDepth depth){
+		this.text = text;
+		this.encoding = encoding;
+		this.depth = depth;
+		plain = null;
+		chars = text.text;
+		pos = limit = text.offset;
+		metrics = ANSIMetrics.active();
+	}
+
+	/**
+	 * Creates an encoder that writes the given characters unchanged, without
+	 * copying them all first. Nothing is encoded, so the metrics do not count it.
+	 */
+	ANSIByteEncoder(String plain){
+		text = null;
+		encoding = null;
+		depth = null;
+		this.plain = plain;
+		chars = new char[Math.min(CHUNK_SIZE, plain.length())];
+	}
+
+	/**
+	 * Writes as many bytes as fit into the buffer, starting at its position.
+	 * @return true if everything has been written.
+	 */
+	public boolean encode(ByteBuffer out){
+		if(metrics == null) return fill(out);
+		long start = System.nanoTime();
+		int position = out.position();
+		boolean done = fill(out);
+		written += out.position() - position;
+		nanos += System.nanoTime() - start;
+		if(done){
+			metrics.encoded(text.length, written, true, text.runCount, nanos);
+			metrics = null;
+		}
+		return done;
+	}
+
+	private boolean fill(ByteBuffer out){
+		while(true){
+			if(pendingPos < pendingLength){
+				int count = Math.min(out.remaining(), pendingLength - pendingPos);
+				out.put(pending, pendingPos, count);
+				pendingPos += count;
+				if(pendingPos < pendingLength) return false;
+			}
+			if(pos < limit){
+				putASCII(out);
+				if(pos == limit) continue;
+				if(!out.hasRemaining()) return false;
+				pendingPos = 0;
+				pendingLength = 0;
+				encodeChar(chars[pos]);
+				continue;
+			}
+			if(plain != null){
+				if(!nextWindow()) return true;
+				continue;
+			}
+			if(run + 1 >= text.runCount) return true;
+			++run;
+			sequence.setLength(0);
+			long next = ColorQuantizer.reduce(text.runStyle(run), depth);
+			SGREncoder.appendChanges(sequence, style, next, encoding);
+			style = next;
+			int seqlen = sequence.length();
+			if(seqlen > pending.length) pending = new byte[Math.max(seqlen, pending.length * 2)];
+			for(int i = 0;i < seqlen;++i){
+				pending[i] = (byte) sequence.charAt(i);
+			}
+			pendingPos = 0;
+			pendingLength = seqlen;
+			limit = text.offset + text.runLimit(run);
+		}
+	}
+
+	/**
+	 * Checks whether everything has been written.
+	 */
+	public boolean isDone(){
+		if(pendingPos < pendingLength || pos < limit) return false;
+		return plain != null ? plainPos == plain.length() : run + 1 >= text.runCount;
+	}
+
+	/**
+	 * Copies the next window of the plain String into chars. A surrogate pair is
+	 * never split between two windows.
+	 * @return false if the whole String has been copied.
+	 */
+	private boolean nextWindow(){
+		int count = Math.min(chars.length, plain.length() - plainPos);
+		if(count == 0) return false;
+		if(plainPos + count < plain.length() && Character.isHighSurrogate(plain.charAt(plainPos + count - 1))) --count;
+		plain.getChars(plainPos, plainPos + count, chars, 0);
+		plainPos += count;
+		pos = 0;
+		limit = count;
+		return true;
+	}
+
+	/**
+	 * Copies characters from pos up to the first non-ASCII one, the end of the run
+	 * or the end of the buffer. Heap buffers are written directly; others are
+	 * given the bytes in chunks, which is much faster than one put per byte.
+	 */
+	private void putASCII(ByteBuffer out){
+		if(out.hasArray()){
+			byte[] array = out.array();
+			int offset = out.arrayOffset() + out.position() - pos;
+			int stop = Math.min(limit, pos + out.remaining());
+			int start = pos;
+			while(pos < stop && chars[pos] < 0x80){
+				array[offset + pos] = (byte) chars[pos];
+				++pos;
+			}
+			out.position(out.position() + pos - start);
+			return;
+		}
+		while(out.hasRemaining() && pos < limit){
+			int stop = Math.min(limit, pos + Math.min(out.remaining(), CHUNK_SIZE));
+			int count = 0;
+			while(pos < stop && chars[pos] < 0x80){
+				chunk[count++] = (byte) chars[pos++];
+			}
+			out.put(chunk, 0, count);
+			if(pos < stop) return;
+		}
+	}
+
+	/**
+	 * Puts the UTF-8 bytes of the non-ASCII character at pos into the pending
+	 * bytes, and moves past it. A surrogate pair is read as one character when
+	 * nothing comes between its halves in the String: when they are in the same
+	 * run, or in neighbouring runs whose styles need no sequence between them.
+	 */
+	private void encodeChar(char c){
+		++pos;
+		if(c < 0x800){
+			pending[pendingLength++] = (byte) (0xC0 | (c >> 6));
+			pending[pendingLength++] = (byte) (0x80 | (c & 0x3F));
+			return;
+		}
+		if(c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE){
+			pending[pendingLength++] = (byte) (0xE0 | (c >> 12));
+			pending[pendingLength++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+			pending[pendingLength++] = (byte) (0x80 | (c & 0x3F));
+			return;
+		}
+		if(Character.isHighSurrogate(c) && (pos < limit || joinsNextRun()) && Character.isLowSurrogate(chars[pos])){
+			int cp = Character.toCodePoint(c, chars[pos++]);
+			pending[pendingLength++] = (byte) (0xF0 | (cp >> 18));
+			pending[pendingLength++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+			pending[pendingLength++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+			pending[pendingLength++] = (byte) (0x80 | (cp & 0x3F));
+			return;
+		}
+		pending[pendingLength++] = '?';
+	}
+
+	/**
+	 * Checks whether pos is at the end of the current run, and the next run
+	 * follows it without a sequence between them. A low surrogate read from
+	 * there leaves pos past the end of the run, and the next run then starts
+	 * with the char after it.
+	 */
+	private boolean joinsNextRun(){
+		return text != null && pos == limit && run + 1 < text.runCount
+				&& ColorQuantizer.reduce(text.runStyle(run + 1), depth) == style;
+	}
+}
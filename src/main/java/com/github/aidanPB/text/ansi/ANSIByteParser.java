@@ -0,0 +1,160 @@
+package com.github.aidanPB.text.ansi;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * An SGR parser for UTF-8 input that works on the bytes themselves. ESC and the
+ * rest of an SGR sequence are ASCII, and no byte of a UTF-8 multi-byte character
+ * is, so the sequences can be found without decoding anything. Each stretch of
+ * plain text is handed to a {@link SegmentHandler} as a {@link Segment}, which
+ * gives its position in both bytes and chars and decodes it only when asked.
+ * The styles are decoded exactly as ANSIAttributedString.fromString does.
+ * <p>
+ * Each call to parse handles one complete input, starting from the default
+ * style; an unfinished sequence at the end is passed on as text. A parser is not
+ * thread-safe, but it can be reused.
+ */
+public class ANSIByteParser {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Receives the plain text of the input, one segment at a time.
+	 */
+	public interface SegmentHandler{
+		/**
+		 * Called for each segment of plain text. The segment object is reused, so it
+		 * is only valid for the duration of the call. A run of text with the same
+		 * style may be split over several calls.
+		 */
+		void segment(Segment segment);
+	}
+
+	/**
+	 * A stretch of plain text in the input, and the style in effect for it.
+	 */
+	public static final class Segment{
+
+		private ByteBuffer source;
+		private int byteStart, byteEnd;
+		private int charStart, charEnd;
+		private long style;
+
+		Segment(){}
+
+		/**
+		 * Returns the input buffer. Its position and limit are not those of the
+		 * segment, and it must not be changed.
+		 */
+		public ByteBuffer getSource(){
+			return source;
+		}
+
+		/**
+		 * Returns the index in the input buffer of the first byte of the segment.
+		 */
+		public int getByteStart(){
+			return byteStart;
+		}
+
+		public int getByteEnd(){
+			return byteEnd;
+		}
+
+		/**
+		 * Returns the index of the first char of the segment in the decoded text of
+		 * the input, with the escape sequences left out. The char offsets are exact
+		 * for well-formed UTF-8.
+		 */
+		public int getCharStart(){
+			return charStart;
+		}
+
+		public int getCharEnd(){
+			return charEnd;
+		}
+
+		/**
+		 * Returns the packed style (see {@link ANSIStyle}) of the segment.
+		 */
+		public long getStyle(){
+			return style;
+		}
+
+		/**
+		 * Decodes the text of the segment. Malformed input is replaced with U+FFFD.
+		 */
+		public String getText(){
+			ByteBuffer bytes = source.duplicate();
+			bytes.limit(byteEnd).position(byteStart);
+			return UTF8.decode(bytes).toString();
+		}
+	}
+
+	private final SegmentHandler handler;
+	private final SGRLexer lexer = new SGRLexer();
+	private final Segment segment = new Segment();
+	private int segments;
+
+	public ANSIByteParser(SegmentHandler handler){
+		if(handler == null) throw new NullPointerException("handler");
+		this.handler = handler;
+	}
+
+	public void parse(byte[] input){
+		parse(input, 0, input.length);
+	}
+
+	/**
+	 * Parses a range of an array. The byte offsets of the segments are indexes of
+	 * the array.
+	 */
+	public void parse(byte[] input, int offset, int length){
+		parse(ByteBuffer.wrap(input, offset, length));
+	}
+
+	/**
+	 * Parses the remaining bytes of the given buffer, leaving its position at its
+	 * limit. The byte offsets of the segments are absolute indexes of the buffer.
+	 */
+	public void parse(ByteBuffer input){
+		ANSIMetrics metrics = ANSIMetrics.active();
+		long start = metrics == null ? 0 : System.nanoTime();
+		int from = input.position();
+		int to = input.limit();
+		ByteChars chars = new ByteChars(input, from, to);
+		segment.source = input;
+		long style = ANSIStyle.DEFAULT;
+		int pos = from;
+		int charPos = 0;
+		int sequences = 0;
+		segments = 0;
+		while(lexer.find(chars, pos, to)){
+			charPos = emit(chars, pos, lexer.start, charPos, style);
+			pos = lexer.end;
+			style = SGRDecoder.decode(style, lexer, metrics);
+			++sequences;
+		}
+		emit(chars, pos, to, charPos, style);
+		segment.source = null;
+		input.position(to);
+		if(metrics != null) metrics.parsed(to - from, true, sequences, segments, start);
+	}
+
+	/**
+	 * @return the char offset after the segment.
+	 */
+	private int emit(ByteChars chars, int start, int end, int charStart, long style){
+		if(start == end) return charStart;
+		int charEnd = charStart + chars.countChars(start, end);
+		segment.byteStart = start;
+		segment.byteEnd = end;
+		segment.charStart = charStart;
+		segment.charEnd = charEnd;
+		segment.style = style;
+		++segments;
+		handler.segment(segment);
+		return charEnd;
+	}
+}
@@ -0,0 +1,80 @@
+package com.github.aidanPB.text.ansi;
+
+import java.io.Serializable;
+
+/**
+ * An immutable 24-bit RGB colour, used as the value of the ANSI_FG_COL and
+ * ANSI_BG_COL attributes. Unlike java.awt.Color it does not need AWT, so
+ * parsing and encoding never load it; see {@link AWTColors} for converting
+ * between the two.
+ */
+public final class ANSIColor implements Serializable {
+
+	/**
+	 * The unique ID number for this version of this class.
+	 */
+	private static final long serialVersionUID = -3170829410633915066L;
+
+	private final int rgb;
+
+	ANSIColor(int rgb){
+		this.rgb = rgb & 0xFFFFFF;
+	}
+
+	/**
+	 * Returns the colour 0xRRGGBB; higher bits are ignored. The colours that SGR
+	 * codes can select are shared instances.
+	 */
+	public static ANSIColor valueOf(int rgb){
+		return SGRPalette.toColor(rgb & 0xFFFFFF);
+	}
+
+	/**
+	 * Returns the colour with the given components, each in the range 0-255.
+	 */
+	public static ANSIColor valueOf(int red, int green, int blue){
+		if(((red | green | blue) & ~0xFF) != 0){
+			throw new IllegalArgumentException("Colour component out of range: " + red + ", " + green + ", " + blue);
+		}
+		return valueOf((red << 16) | (green << 8) | blue);
+	}
+
+	/**
+	 * Returns a colour of the 256-colour palette, as selected by "38;5;n".
+	 */
+	public static ANSIColor indexed(int index){
+		if(index < 0 || index > 255) throw new IllegalArgumentException("Palette index out of range: " + index);
+		return valueOf(SGRPalette.INDEXED[index]);
+	}
+
+	/**
+	 * Returns the colour as 0xRRGGBB.
+	 */
+	public int getRGB(){
+		return rgb;
+	}
+
+	public int getRed(){
+		return rgb >> 16;
+	}
+
+	public int getGreen(){
+		return (rgb >> 8) & 0xFF;
+	}
+
+	public int getBlue(){
+		return rgb & 0xFF;
+	}
+
+	public boolean equals(Object obj){
+		return obj instanceof ANSIColor && ((ANSIColor) obj).rgb == rgb;
+	}
+
+	public int hashCode(){
+		return rgb;
+	}
+
+	public String toString(){
+		return getClass().getName() + "[r=" + getRed() + ",g=" + getGreen() + ",b=" + getBlue() + "]";
+	}
+}
@@ -0,0 +1,212 @@
+package com.github.aidanPB.text.ansi;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Builds a single SGR sequence out of any number of TextModifiers, such as
+ * "\033[1;4;38;5;208m", and writes it without allocating. A builder is meant to
+ * be reused: {@link #clear()} it and add the next modifiers. The byte forms of
+ * the codes, and of every sequence of a single TextModifier, are computed once.
+ * <pre>
+ * builder.clear().add(TextModifier.BOLD).addIndexed(TextModifier.SET_FG_EXTENDED, 208).writeTo(buffer);
+ * </pre>
+ * A builder is not thread-safe.
+ */
+public final class ANSIEscapeBuilder {
+
+	private static final TextModifier[] MODIFIERS = TextModifier.values();
+
+	/**
+	 * The ASCII digits of every number up to 255.
+	 */
+	private static final byte[][] NUMBERS = new byte[256][];
+
+	/**
+	 * The complete sequence of each TextModifier on its own, by ordinal.
+	 */
+	private static final byte[][] SEQUENCES = new byte[MODIFIERS.length][];
+
+	static{
+		for(int i = 0;i < NUMBERS.length;++i){
+			NUMBERS[i] = ascii(Integer.toString(i));
+		}
+		for(TextModifier modifier : MODIFIERS){
+			SEQUENCES[modifier.ordinal()] = ascii("\033[" + modifier.getCodeNumber() + "m");
+		}
+	}
+
+	private int[] params = new int[16];
+	private int count;
+	private byte[] scratch = new byte[64];
+
+	/**
+	 * Set while the builder holds exactly one TextModifier and nothing else.
+	 */
+	private TextModifier single;
+
+	/**
+	 * Removes everything added so far.
+	 * @return this builder.
+	 */
+	public ANSIEscapeBuilder clear(){
+		count = 0;
+		single = null;
+		return this;
+	}
+
+	public boolean isEmpty(){
+		return count == 0;
+	}
+
+	/**
+	 * Adds a modifier that takes no arguments.
+	 * @return this builder.
+	 * @throws IllegalArgumentException for SET_FG_EXTENDED and SET_BG_EXTENDED,
+	 * which need a colour; use addIndexed or addRGB for them.
+	 */
+	public ANSIEscapeBuilder add(TextModifier modifier){
+		if(modifier == TextModifier.SET_FG_EXTENDED || modifier == TextModifier.SET_BG_EXTENDED){
+			throw new IllegalArgumentException(modifier + " takes a colour; use addIndexed or addRGB");
+		}
+		single = count == 0 ? modifier : null;
+		param(modifier.getCodeNumber());
+		return this;
+	}
+
+	/**
+	 * Adds SET_FG_EXTENDED or SET_BG_EXTENDED with a colour from the 256-colour
+	 * palette ("38;5;n" or "48;5;n").
+	 * @return this builder.
+	 */
+	public ANSIEscapeBuilder addIndexed(TextModifier extended, int index){
+		checkExtended(extended);
+		checkByte(index, "Palette index");
+		single = null;
+		param(extended.getCodeNumber());
+		param(5);
+		param(index);
+		return this;
+	}
+
+	/**
+	 * Adds SET_FG_EXTENDED or SET_BG_EXTENDED with a 24-bit colour
+	 * ("38;2;r;g;b" or "48;2;r;g;b").
+	 * @return this builder.
+	 */
+	public ANSIEscapeBuilder addRGB(TextModifier extended, int red, int green, int blue){
+		checkExtended(extended);
+		checkByte(red, "Red");
+		checkByte(green, "Green");
+		checkByte(blue, "Blue");
+		single = null;
+		param(extended.getCodeNumber());
+		param(2);
+		param(red);
+		param(green);
+		param(blue);
+		return this;
+	}
+
+	/**
+	 * Returns the number of chars (or bytes) of the sequence; 0 if nothing has
+	 * been added.
+	 */
+	public int length(){
+		if(count == 0) return 0;
+		int length = 2 + count;
+		for(int i = 0;i < count;++i){
+			length += NUMBERS[params[i]].length;
+		}
+		return length;
+	}
+
+	/**
+	 * Appends the sequence. Nothing is appended if nothing has been added.
+	 */
+	public void appendTo(StringBuilder out){
+		if(count == 0) return;
+		out.append(SGRLexer.ESC).append('[');
+		for(int i = 0;i < count;++i){
+			if(i > 0) out.append(';');
+			out.append(params[i]);
+		}
+		out.append('m');
+	}
+
+	/**
+	 * As appendTo(StringBuilder), for any Appendable.
+	 */
+	public void appendTo(Appendable out) throws IOException{
+		if(count == 0) return;
+		out.append(SGRLexer.ESC).append('[');
+		for(int i = 0;i < count;++i){
+			if(i > 0) out.append(';');
+			byte[] digits = NUMBERS[params[i]];
+			for(byte digit : digits) out.append((char) digit);
+		}
+		out.append('m');
+	}
+
+	/**
+	 * Puts the sequence into the buffer as ASCII bytes. Nothing is written if
+	 * nothing has been added.
+	 * @throws BufferOverflowException if the buffer has less than length() bytes
+	 * remaining, in which case nothing is written.
+	 */
+	public void writeTo(ByteBuffer out){
+		if(count == 0) return;
+		if(single != null){
+			out.put(SEQUENCES[single.ordinal()]);
+			return;
+		}
+		int length = length();
+		if(out.remaining() < length) throw new BufferOverflowException();
+		//Built in an array first, as single puts are slow on direct buffers.
+		if(scratch.length < length) scratch = new byte[Math.max(length, scratch.length * 2)];
+		byte[] bytes = scratch;
+		bytes[0] = SGRLexer.ESC;
+		bytes[1] = '[';
+		int pos = 2;
+		for(int i = 0;i < count;++i){
+			if(i > 0) bytes[pos++] = ';';
+			byte[] digits = NUMBERS[params[i]];
+			for(int j = 0;j < digits.length;++j){
+				bytes[pos++] = digits[j];
+			}
+		}
+		bytes[pos] = 'm';
+		out.put(bytes, 0, length);
+	}
+
+	public String toString(){
+		StringBuilder sbuf = new StringBuilder(length());
+		appendTo(sbuf);
+		return sbuf.toString();
+	}
+
+	private void param(int value){
+		if(count == params.length) params = Arrays.copyOf(params, count * 2);
+		params[count++] = value;
+	}
+
+	private static void checkExtended(TextModifier extended){
+		if(extended != TextModifier.SET_FG_EXTENDED && extended != TextModifier.SET_BG_EXTENDED){
+			throw new IllegalArgumentException("Not an extended colour modifier: " + extended);
+		}
+	}
+
+	private static void checkByte(int value, String name){
+		if(value < 0 || value > 255) throw new IllegalArgumentException(name + " out of range: " + value);
+	}
+
+	private static byte[] ascii(String text){
+		byte[] bytes = new byte[text.length()];
+		for(int i = 0;i < bytes.length;++i){
+			bytes[i] = (byte) text.charAt(i);
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,318 @@
+package com.github.aidanPB.text.ansi;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * An index over a large UTF-8 log file with SGR sequences, for fetching any
+ * range of its lines as an ANSIAttributedString without reading the rest of the
+ * file. Every {@link #getInterval() interval} lines the index records where the
+ * line starts and the style in effect there. A fetch maps the file from the
+ * nearest such checkpoint, skips forward to the first line wanted (decoding only
+ * the sequences on the way), and decodes only the lines asked for.
+ * <p>
+ * The index is built by reading the file once, and can be saved next to it so
+ * that opening the file later reads only the index. Each line is parsed on its
+ * own: a sequence that is not finished by the end of its line is kept as text,
+ * but the style carries over from one line to the next.
+ * <p>
+ * An index is not thread-safe.
+ */
+public class ANSILogIndex implements Closeable {
+
+	/**
+	 * The number of lines between checkpoints used by {@link #build(File)}.
+	 */
+	public static final int DEFAULT_INTERVAL = 1024;
+
+	private static final int MAGIC = 0x414E5349;
+	private static final int VERSION = 1;
+	private static final int READ_BUFFER_SIZE = 1 << 20;
+	private static final int MAP_SIZE = 1 << 26;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final File file;
+	private final long fileLength;
+	private final long lastModified;
+	private final long lineCount;
+	private final int interval;
+	private final long[] offsets;
+	private final long[] styles;
+	private final SGRLexer lexer = new SGRLexer();
+	private RandomAccessFile access;
+	private MappedByteBuffer mapped;
+	private long mappedStart;
+
+	private ANSILogIndex(File file, long fileLength, long lastModified, long lineCount, int interval,
+			long[] offsets, long[] styles){
+		this.file = file;
+		this.fileLength = fileLength;
+		this.lastModified = lastModified;
+		this.lineCount = lineCount;
+		this.interval = interval;
+		this.offsets = offsets;
+		this.styles = styles;
+	}
+
+	public static ANSILogIndex build(File file) throws IOException{
+		return build(file, DEFAULT_INTERVAL);
+	}
+
+	/**
+	 * Reads the whole file to build its index. Fetches skip over up to interval-1
+	 * lines, and the index holds 16 bytes per interval lines.
+	 */
+	public static ANSILogIndex build(File file, int interval) throws IOException{
+		if(interval < 1) throw new IllegalArgumentException("Interval must be positive: " + interval);
+		long lastModified = file.lastModified();
+		FileInputStream in = new FileInputStream(file);
+		try{
+			FileChannel channel = in.getChannel();
+			long[] offsets = new long[16];
+			long[] styles = new long[16];
+			int checkpoints = 0;
+			SGRLexer lexer = new SGRLexer();
+			ByteBuffer buf = ByteBuffer.allocate(READ_BUFFER_SIZE);
+			long base = 0;
+			long line = 0;
+			long style = ANSIStyle.DEFAULT;
+			boolean eof = false;
+			while(!eof){
+				eof = channel.read(buf) < 0;
+				buf.flip();
+				ByteChars chars = new ByteChars(buf, 0, buf.limit());
+				int lineStart = 0;
+				while(lineStart < buf.limit()){
+					int newline = chars.indexOf((byte) '\n', lineStart, buf.limit());
+					if(newline < 0){
+						if(!eof) break;
+						newline = buf.limit();
+					}
+					if(line % interval == 0){
+						if(checkpoints == offsets.length){
+							offsets = Arrays.copyOf(offsets, checkpoints * 2);
+							styles = Arrays.copyOf(styles, checkpoints * 2);
+						}
+						offsets[checkpoints] = base + lineStart;
+						styles[checkpoints++] = style;
+					}
+					style = applyLine(lexer, chars, lineStart, newline, style);
+					++line;
+					lineStart = newline + 1;
+				}
+				lineStart = Math.min(lineStart, buf.limit());
+				base += lineStart;
+				buf.position(lineStart);
+				buf.compact();
+				if(!buf.hasRemaining()){
+					//A single line longer than the buffer.
+					ByteBuffer bigger = ByteBuffer.allocate(buf.capacity() * 2);
+					buf.flip();
+					bigger.put(buf);
+					buf = bigger;
+				}
+			}
+			return new ANSILogIndex(file, base, lastModified, line, interval,
+					Arrays.copyOf(offsets, checkpoints), Arrays.copyOf(styles, checkpoints));
+		}finally{
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes the index to a file, to be read back by {@link #load(File, File)}.
+	 */
+	public void save(File indexFile) throws IOException{
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+		try{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(fileLength);
+			out.writeLong(lastModified);
+			out.writeLong(lineCount);
+			out.writeInt(interval);
+			out.writeInt(offsets.length);
+			for(int i = 0;i < offsets.length;++i){
+				out.writeLong(offsets[i]);
+				out.writeLong(styles[i]);
+			}
+		}finally{
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads an index saved by {@link #save(File)}. Only the index file is read.
+	 * @throws IOException if the index is not one, or was made for a different
+	 * version of the file.
+	 */
+	public static ANSILogIndex load(File file, File indexFile) throws IOException{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+		try{
+			if(in.readInt() != MAGIC || in.readInt() != VERSION) throw new IOException("Not an ANSI log index: " + indexFile);
+			long fileLength = in.readLong();
+			long lastModified = in.readLong();
+			if(fileLength != file.length() || lastModified != file.lastModified()){
+				throw new IOException("The index " + indexFile + " does not match " + file);
+			}
+			long lineCount = in.readLong();
+			int interval = in.readInt();
+			int checkpoints = in.readInt();
+			long[] offsets = new long[checkpoints];
+			long[] styles = new long[checkpoints];
+			for(int i = 0;i < checkpoints;++i){
+				offsets[i] = in.readLong();
+				styles[i] = in.readLong();
+			}
+			return new ANSILogIndex(file, fileLength, lastModified, lineCount, interval, offsets, styles);
+		}finally{
+			in.close();
+		}
+	}
+
+	public long getLineCount(){
+		return lineCount;
+	}
+
+	public int getInterval(){
+		return interval;
+	}
+
+	/**
+	 * Returns the packed style (see {@link ANSIStyle}) in effect at the start of a
+	 * line.
+	 */
+	public long getStyleAt(long line) throws IOException{
+		if(line < 0 || line > lineCount) throw new IndexOutOfBoundsException("Line " + line + " of " + lineCount);
+		return seek(line)[1];
+	}
+
+	/**
+	 * Returns a range of lines, with their line terminators, as styled text. The
+	 * range is cut short at the end of the file.
+	 */
+	public ANSIAttributedString getLines(long first, int count) throws IOException{
+		if(first < 0 || first > lineCount || count < 0) throw new IndexOutOfBoundsException("Lines " + first + "+" + count + " of " + lineCount);
+		long last = Math.min(lineCount, first + count);
+		if(first == last) return new ANSIAttributedString(StyledText.EMPTY);
+		long[] state = seek(first);
+		long begin = state[0];
+		long style = state[1];
+		long end = begin;
+		for(long line = first;line < last;++line){
+			end = Math.min(lineEnd(end) + 1, fileLength);
+		}
+		if(end - begin > Integer.MAX_VALUE) throw new IllegalArgumentException("Too many lines for one string: " + count);
+		ByteBuffer bytes = map(begin, end);
+		bytes.limit((int) (end - mappedStart)).position((int) (begin - mappedStart));
+		String text = UTF8.decode(bytes).toString();
+		char[] chars = new char[text.length()];
+		StyledText.Runs runs = new StyledText.Runs(16);
+		runs.add(0, style);
+		int length = 0;
+		int lineStart = 0;
+		while(lineStart < text.length()){
+			int lineEnd = text.indexOf('\n', lineStart);
+			lineEnd = lineEnd < 0 ? text.length() : lineEnd + 1;
+			int pos = lineStart;
+			while(lexer.find(text, pos, lineEnd)){
+				text.getChars(pos, lexer.start, chars, length);
+				length += lexer.start - pos;
+				pos = lexer.end;
+				style = SGRDecoder.decode(style, lexer);
+				runs.add(length, style);
+			}
+			text.getChars(pos, lineEnd, chars, length);
+			length += lineEnd - pos;
+			lineStart = lineEnd;
+		}
+		return new ANSIAttributedString(runs.toStyledText(chars, length));
+	}
+
+	/**
+	 * Releases the file. The index itself can still be saved.
+	 */
+	public void close() throws IOException{
+		mapped = null;
+		if(access != null){
+			access.close();
+			access = null;
+		}
+	}
+
+	/**
+	 * Finds where a line starts and the style in effect there, starting from the
+	 * checkpoint before it.
+	 * @return the offset and the style.
+	 */
+	private long[] seek(long target) throws IOException{
+		int checkpoint = (int) (target / interval);
+		if(checkpoint >= offsets.length) checkpoint = offsets.length - 1;
+		if(checkpoint < 0) return new long[]{0, ANSIStyle.DEFAULT};
+		long pos = offsets[checkpoint];
+		long style = styles[checkpoint];
+		for(long line = (long) checkpoint * interval;line < target;++line){
+			long newline = lineEnd(pos);
+			ByteBuffer bytes = map(pos, newline);
+			int start = (int) (pos - mappedStart);
+			style = applyLine(lexer, new ByteChars(bytes, start, (int) (newline - mappedStart)), start,
+					(int) (newline - mappedStart), style);
+			pos = Math.min(newline + 1, fileLength);
+		}
+		return new long[]{pos, style};
+	}
+
+	/**
+	 * Returns the offset of the newline that ends the line starting at pos, or the
+	 * length of the file if the line is not terminated.
+	 */
+	private long lineEnd(long pos) throws IOException{
+		while(pos < fileLength){
+			ByteBuffer bytes = map(pos, Math.min(pos + 1, fileLength));
+			int from = (int) (pos - mappedStart);
+			int to = bytes.capacity();
+			int newline = new ByteChars(bytes, from, to).indexOf((byte) '\n', from, to);
+			if(newline >= 0) return mappedStart + newline;
+			pos = mappedStart + to;
+		}
+		return fileLength;
+	}
+
+	/**
+	 * Returns a mapping of the file that covers the given range, reusing the last
+	 * one if it does.
+	 */
+	private ByteBuffer map(long start, long end) throws IOException{
+		if(mapped == null || start < mappedStart || end > mappedStart + mapped.capacity()){
+			if(access == null) access = new RandomAccessFile(file, "r");
+			long size = Math.min(Math.max(end - start, MAP_SIZE), fileLength - start);
+			if(size > Integer.MAX_VALUE) throw new IllegalArgumentException("Range too large to map: " + (end - start));
+			mapped = access.getChannel().map(FileChannel.MapMode.READ_ONLY, start, size);
+			mappedStart = start;
+		}
+		mapped.clear();
+		return mapped;
+	}
+
+	private static long applyLine(SGRLexer lexer, ByteChars chars, int from, int to, long style){
+		int pos = from;
+		while(lexer.find(chars, pos, to)){
+			pos = lexer.end;
+			style = SGRDecoder.decode(style, lexer);
+		}
+		return style;
+	}
+}
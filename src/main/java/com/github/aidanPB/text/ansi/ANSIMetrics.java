@@ -0,0 +1,240 @@
+package com.github.aidanPB.text.ansi;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Opt-in counters over the parsing and encoding done by this package, and a hook
+ * that is told about each call. Nothing is counted until the metrics are
+ * enabled. While they are disabled, each parse or encode call reads one
+ * volatile field and does nothing more; while they are enabled, every SGR
+ * sequence is also counted, code by code.
+ * <p>
+ * Parsing is counted in ANSIAttributedString.fromString (with or without an
+ * executor), the first use of a lazily parsed string, ANSIByteParser and each
+ * chunk fed to ANSIStreamParser. Encoding is counted in
+ * ANSIAttributedString.encode, writeTo, and the ANSIByteEncoder once it is done.
+ * A string that writes out its source unchanged is not encoding anything, and
+ * is not counted.
+ */
+public final class ANSIMetrics implements ANSIMetricsMXBean {
+
+	/**
+	 * Told about each instrumented call while the metrics are enabled. It is
+	 * called on the thread that made the call, so it should be quick.
+	 */
+	public interface Listener{
+		/**
+		 * @param inputLength the length of the input.
+		 * @param sequences the number of SGR sequences in it.
+		 * @param runs the number of runs produced, or for the streaming parsers the
+		 * number of segments handed out.
+		 * @param nanos how long the parse took.
+		 */
+		void parsed(int inputLength, int sequences, int runs, long nanos);
+
+		/**
+		 * @param plainLength the length of the text without its sequences.
+		 * @param outputLength the length of the output.
+		 * @param runs the number of runs encoded.
+		 * @param nanos how long the encoding took; for an ANSIByteEncoder, the time
+		 * spent in its encode calls.
+		 */
+		void encoded(int plainLength, long outputLength, int runs, long nanos);
+	}
+
+	/**
+	 * The name the metrics are registered under by {@link #register()}.
+	 */
+	public static final String OBJECT_NAME = "com.github.aidanPB.text.ansi:type=ANSIMetrics";
+
+	/**
+	 * The number of codes counted one by one; see {@link #getCodeCounts()}.
+	 */
+	static final int CODES = 108;
+
+	private static final ANSIMetrics INSTANCE = new ANSIMetrics();
+
+	/**
+	 * The instance while it is enabled, and null otherwise, so that the hot paths
+	 * need only one read to find out whether to count.
+	 */
+	private static volatile ANSIMetrics active;
+
+	private volatile Listener listener;
+	private final AtomicLong parses = new AtomicLong();
+	private final AtomicLong parseNanos = new AtomicLong();
+	private final AtomicLong charsIn = new AtomicLong();
+	private final AtomicLong bytesIn = new AtomicLong();
+	private final AtomicLong sequences = new AtomicLong();
+	private final AtomicLong runs = new AtomicLong();
+	private final AtomicLong encodes = new AtomicLong();
+	private final AtomicLong encodeNanos = new AtomicLong();
+	private final AtomicLong charsOut = new AtomicLong();
+	private final AtomicLong bytesOut = new AtomicLong();
+	private final AtomicLongArray codes = new AtomicLongArray(CODES);
+	private final AtomicLong ignored = new AtomicLong();
+	private final AtomicLong indexed = new AtomicLong();
+	private final AtomicLong truecolor = new AtomicLong();
+
+	private ANSIMetrics(){}
+
+	public static ANSIMetrics getInstance(){
+		return INSTANCE;
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server under
+	 * {@link #OBJECT_NAME}. Registering does not enable them.
+	 */
+	public static void register() throws JMException{
+		register(ManagementFactory.getPlatformMBeanServer());
+	}
+
+	public static void register(MBeanServer server) throws JMException{
+		server.registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+	}
+
+	/**
+	 * Returns the metrics if they are enabled, or null.
+	 */
+	static ANSIMetrics active(){
+		return active;
+	}
+
+	public boolean isEnabled(){
+		return active != null;
+	}
+
+	public void setEnabled(boolean enabled){
+		active = enabled ? this : null;
+	}
+
+	public Listener getListener(){
+		return listener;
+	}
+
+	/**
+	 * Sets the listener that is told about each call, or removes it if null.
+	 */
+	public void setListener(Listener listener){
+		this.listener = listener;
+	}
+
+	public long getParseCount(){
+		return parses.get();
+	}
+
+	public long getParseNanos(){
+		return parseNanos.get();
+	}
+
+	public long getCharsIn(){
+		return charsIn.get();
+	}
+
+	public long getBytesIn(){
+		return bytesIn.get();
+	}
+
+	public long getSequenceCount(){
+		return sequences.get();
+	}
+
+	public long getRunCount(){
+		return runs.get();
+	}
+
+	public long getEncodeCount(){
+		return encodes.get();
+	}
+
+	public long getEncodeNanos(){
+		return encodeNanos.get();
+	}
+
+	public long getCharsOut(){
+		return charsOut.get();
+	}
+
+	public long getBytesOut(){
+		return bytesOut.get();
+	}
+
+	public long[] getCodeCounts(){
+		long[] counts = new long[CODES];
+		for(int i = 0;i < CODES;++i){
+			counts[i] = codes.get(i);
+		}
+		return counts;
+	}
+
+	public long getIgnoredCodeCount(){
+		return ignored.get();
+	}
+
+	public long getIndexedColorCount(){
+		return indexed.get();
+	}
+
+	public long getTruecolorCount(){
+		return truecolor.get();
+	}
+
+	public void reset(){
+		for(AtomicLong counter : new AtomicLong[]{parses, parseNanos, charsIn, bytesIn, sequences, runs, encodes,
+				encodeNanos, charsOut, bytesOut, ignored, indexed, truecolor}){
+			counter.set(0);
+		}
+		for(int i = 0;i < CODES;++i){
+			codes.set(i, 0);
+		}
+	}
+
+	/**
+	 * Called by SGRDecoder.decode for each sequence it decodes; code and color are
+	 * called for each code in it and each foreground or background colour it
+	 * selects.
+	 */
+	void sequence(){
+		sequences.incrementAndGet();
+	}
+
+	void code(int sgr, boolean supported){
+		if(sgr < CODES) codes.incrementAndGet(sgr);
+		if(!supported) ignored.incrementAndGet();
+	}
+
+	void color(boolean fromPalette){
+		(fromPalette ? indexed : truecolor).incrementAndGet();
+	}
+
+	/**
+	 * Counts a parse that began at the given System.nanoTime().
+	 */
+	void parsed(int inputLength, boolean bytes, int sequenceCount, int runCount, long start){
+		long nanos = System.nanoTime() - start;
+		parses.incrementAndGet();
+		parseNanos.addAndGet(nanos);
+		(bytes ? bytesIn : charsIn).addAndGet(inputLength);
+		runs.addAndGet(runCount);
+		Listener listener = this.listener;
+		if(listener != null) listener.parsed(inputLength, sequenceCount, runCount, nanos);
+	}
+
+	/**
+	 * Counts an encoding that took the given time.
+	 */
+	void encoded(int plainLength, long outputLength, boolean bytes, int runCount, long nanos){
+		encodes.incrementAndGet();
+		encodeNanos.addAndGet(nanos);
+		(bytes ? bytesOut : charsOut).addAndGet(outputLength);
+		Listener listener = this.listener;
+		if(listener != null) listener.encoded(plainLength, outputLength, runCount, nanos);
+	}
+}
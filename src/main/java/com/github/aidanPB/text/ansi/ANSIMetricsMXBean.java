@@ -0,0 +1,59 @@
+package com.github.aidanPB.text.ansi;
+
+/**
+ * The management interface of {@link ANSIMetrics}. Lengths of String input and
+ * output are in chars; those of ANSIByteParser and ANSIByteEncoder are in bytes.
+ */
+public interface ANSIMetricsMXBean {
+
+	boolean isEnabled();
+
+	void setEnabled(boolean enabled);
+
+	long getParseCount();
+
+	long getParseNanos();
+
+	long getCharsIn();
+
+	long getBytesIn();
+
+	long getSequenceCount();
+
+	long getRunCount();
+
+	long getEncodeCount();
+
+	long getEncodeNanos();
+
+	long getCharsOut();
+
+	long getBytesOut();
+
+	/**
+	 * Returns how many times each SGR code from 0 to 107 has been seen, indexed by
+	 * the code. An empty sequence counts as a 0.
+	 */
+	long[] getCodeCounts();
+
+	/**
+	 * Returns how many codes were seen that have no effect: ones that are
+	 * unknown, reserved or deliberately ignored.
+	 */
+	long getIgnoredCodeCount();
+
+	/**
+	 * Returns how many colours were selected from the 256-colour palette.
+	 */
+	long getIndexedColorCount();
+
+	/**
+	 * Returns how many colours were selected as r;g;b.
+	 */
+	long getTruecolorCount();
+
+	/**
+	 * Sets every counter back to 0.
+	 */
+	void reset();
+}
@@ -0,0 +1,207 @@
+package com.github.aidanPB.text.ansi;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of parsed strings, keyed by their escaped input, for inputs
+ * that recur often: prompts, progress bars, log prefixes. The results are
+ * frozen (see {@link ANSIAttributedString#freeze()}), so one instance can be
+ * handed to every caller and thread, and its toString() is worked out once.
+ * <p>
+ * The weight of an entry is the length of its input, and the cache holds at most
+ * the given total weight. Any input up to that weight can be kept; heavier ones
+ * are parsed but not kept. The cache is split into segments by the hash of the
+ * input, each with its own lock, so threads seldom wait for one another. When an
+ * entry takes the total over the limit, the segments take turns, starting with
+ * the entry's own, to evict their least recently used entry until it fits
+ * again, so eviction is close to least recently used over the whole cache. An
+ * input is parsed outside the locks, so two threads that miss on the same input
+ * at once may both parse it.
+ */
+public class ANSIParseCache {
+
+	private static final int SEGMENTS = 16;
+
+	private final Segment[] segments = new Segment[SEGMENTS];
+	private final long maxWeight;
+	private final AtomicLong weight = new AtomicLong();
+
+	public ANSIParseCache(long maxWeight){
+		if(maxWeight <= 0) throw new IllegalArgumentException("Invalid weight limit");
+		this.maxWeight = maxWeight;
+		for(int i = 0;i < SEGMENTS;++i){
+			segments[i] = new Segment(i);
+		}
+	}
+
+	/**
+	 * Returns the frozen result of parsing the input, from the cache if it is
+	 * there.
+	 */
+	public ANSIAttributedString get(String source){
+		Segment segment = segmentFor(source);
+		ANSIAttributedString string = segment.get(source);
+		if(string != null) return string;
+		string = ANSIAttributedString.fromString(source).freeze();
+		if(source.length() > maxWeight) return string;
+		ANSIAttributedString kept = segment.put(source, string);
+		if(kept == string && weight.addAndGet(source.length()) > maxWeight) evict(segment, source);
+		return kept;
+	}
+
+	/**
+	 * Evicts entries until the total weight is within the limit again, taking the
+	 * least recently used entry of each segment in turn. The entry just added is
+	 * kept. This gives up after a full round that evicts nothing, which can only
+	 * happen while other threads are adding entries, and they evict in turn.
+	 */
+	private void evict(Segment start, String keep){
+		int index = start.index;
+		int idle = 0;
+		while(weight.get() > maxWeight && idle < SEGMENTS){
+			int evicted = segments[index].evictEldest(keep);
+			if(evicted < 0){
+				++idle;
+			}else{
+				idle = 0;
+				weight.addAndGet(-evicted);
+			}
+			index = (index + 1) % SEGMENTS;
+		}
+	}
+
+	public long getMaxWeight(){
+		return maxWeight;
+	}
+
+	/**
+	 * Returns the total weight of the entries held now.
+	 */
+	public long getWeight(){
+		return weight.get();
+	}
+
+	public int getSize(){
+		int size = 0;
+		for(Segment segment : segments){
+			synchronized(segment){
+				size += segment.map.size();
+			}
+		}
+		return size;
+	}
+
+	public long getHitCount(){
+		long count = 0;
+		for(Segment segment : segments){
+			synchronized(segment){
+				count += segment.hits;
+			}
+		}
+		return count;
+	}
+
+	public long getMissCount(){
+		long count = 0;
+		for(Segment segment : segments){
+			synchronized(segment){
+				count += segment.misses;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the number of entries removed to make room for others. Entries
+	 * removed by clear() are not counted.
+	 */
+	public long getEvictionCount(){
+		long count = 0;
+		for(Segment segment : segments){
+			synchronized(segment){
+				count += segment.evictions;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the fraction of lookups that were hits, or 0 if there have been
+	 * none.
+	 */
+	public double getHitRate(){
+		long hits = getHitCount();
+		long total = hits + getMissCount();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	/**
+	 * Removes every entry. The counters are kept.
+	 */
+	public void clear(){
+		for(Segment segment : segments){
+			synchronized(segment){
+				segment.map.clear();
+				weight.addAndGet(-segment.weight);
+				segment.weight = 0;
+			}
+		}
+	}
+
+	private Segment segmentFor(String source){
+		return segments[(source.hashCode() * 0x9E3779B9) >>> 28];
+	}
+
+	private static final class Segment{
+
+		final int index;
+		//Kept in access order, so that the first entry is the least recently used.
+		final Map<String, ANSIAttributedString> map = new LinkedHashMap<String, ANSIAttributedString>(16, 0.75f, true);
+		long weight;
+		long hits, misses, evictions;
+
+		Segment(int index){
+			this.index = index;
+		}
+
+		synchronized ANSIAttributedString get(String source){
+			ANSIAttributedString string = map.get(source);
+			if(string == null){
+				++misses;
+			}else{
+				++hits;
+			}
+			return string;
+		}
+
+		/**
+		 * Adds an entry unless another thread has added one for the same input
+		 * meanwhile, and returns the entry that is kept.
+		 */
+		synchronized ANSIAttributedString put(String source, ANSIAttributedString string){
+			ANSIAttributedString existing = map.get(source);
+			if(existing != null) return existing;
+			map.put(source, string);
+			weight += source.length();
+			return string;
+		}
+
+		/**
+		 * Removes the least recently used entry, unless it is the given one.
+		 * @return its weight, or -1 if nothing was removed.
+		 */
+		synchronized int evictEldest(String keep){
+			Iterator<String> keys = map.keySet().iterator();
+			if(!keys.hasNext()) return -1;
+			String eldest = keys.next();
+			if(eldest.equals(keep)) return -1;
+			keys.remove();
+			weight -= eldest.length();
+			++evictions;
+			return eldest.length();
+		}
+	}
+}
@@ -0,0 +1,305 @@
+package com.github.aidanPB.text.ansi;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.github.aidanPB.text.ansi.ANSIAttributedString.ANSIEncoding;
+
+/**
+ * A fixed-size grid of character cells, each holding a char and a packed style
+ * (see {@link ANSIStyle}), that is rendered to a terminal by writing only the
+ * cells that changed since the last frame.
+ * <p>
+ * The screen keeps two copies of the grid: the one being drawn into, and the
+ * one the terminal is known to show. Drawing records, for each row, the span of
+ * columns that were changed; {@link #render(Appendable)} compares the two copies
+ * over those spans only, and writes each changed cell with a cursor move where
+ * the cursor is not already in place and the shortest SGR sequence from the
+ * style the terminal is in. So the cost of a frame, in bytes and in time, follows
+ * the number of changed cells rather than the size of the screen.
+ * <p>
+ * Each cell holds one char, which is taken to be one column wide; control
+ * characters are drawn as spaces. Rows and columns are numbered from 0. The
+ * terminal's cursor position and style are carried over from one render to the
+ * next, so nothing else may write to the terminal in between; if something does,
+ * or the terminal has been cleared, call {@link #invalidate()}. A screen is not
+ * thread-safe.
+ */
+public class ANSIScreen {
+
+	private static final char BLANK = ' ';
+
+	private final int columns;
+	private final int rows;
+	private final char[] chars;
+	private final long[] styles;
+	private final char[] shownChars;
+	private final long[] shownStyles;
+	/*
+	 * The changed span of each row, as the first changed column and the column
+	 * after the last one. A row with no changes has dirtyStart == columns.
+	 */
+	private final int[] dirtyStart;
+	private final int[] dirtyEnd;
+	private final StringBuilder sbuf = new StringBuilder(256);
+	private boolean valid;
+	private long termStyle;
+	private int cursorRow;
+	private int cursorColumn;
+
+	public ANSIScreen(int columns, int rows){
+		if(columns <= 0 || rows <= 0) throw new IllegalArgumentException("Invalid size");
+		this.columns = columns;
+		this.rows = rows;
+		int size = columns * rows;
+		chars = new char[size];
+		styles = new long[size];
+		shownChars = new char[size];
+		shownStyles = new long[size];
+		dirtyStart = new int[rows];
+		dirtyEnd = new int[rows];
+		Arrays.fill(chars, BLANK);
+		Arrays.fill(styles, ANSIStyle.DEFAULT);
+		invalidate();
+	}
+
+	public int getColumns(){
+		return columns;
+	}
+
+	public int getRows(){
+		return rows;
+	}
+
+	public char getChar(int column, int row){
+		return chars[cell(column, row)];
+	}
+
+	/**
+	 * Returns the packed style of a cell.
+	 */
+	public long getStyle(int column, int row){
+		return styles[cell(column, row)];
+	}
+
+	/**
+	 * Sets one cell. A control character is stored as a space.
+	 */
+	public void put(int column, int row, char c, long style){
+		int cell = cell(column, row);
+		if(set(cell, c, style)) markDirty(row, column, column + 1);
+	}
+
+	/**
+	 * Sets every cell of a rectangle to the same char and style. The rectangle is
+	 * clipped to the screen.
+	 */
+	public void fill(int column, int row, int width, int height, char c, long style){
+		int top = Math.max(row, 0);
+		int bottom = Math.min(row + height, rows);
+		int left = Math.max(column, 0);
+		int right = Math.min(column + width, columns);
+		if(left >= right) return;
+		for(int r = top;r < bottom;++r){
+			int base = r * columns;
+			int first = -1;
+			int last = -1;
+			for(int col = left;col < right;++col){
+				if(set(base + col, c, style)){
+					if(first < 0) first = col;
+					last = col;
+				}
+			}
+			if(first >= 0) markDirty(r, first, last + 1);
+		}
+	}
+
+	/**
+	 * Sets every cell to a space in the default style.
+	 */
+	public void clear(){
+		fill(0, 0, columns, rows, BLANK, ANSIStyle.DEFAULT);
+	}
+
+	/**
+	 * Draws plain text in one style; see {@link #draw(int, int, ANSIAttributedString)}.
+	 * @return the row after the last one drawn.
+	 */
+	public int draw(int column, int row, String text, long style){
+		int left = column;
+		for(int i = 0;i < text.length();++i){
+			char c = text.charAt(i);
+			if(c == '\n'){
+				++row;
+				column = left;
+			}else if(c == '\r'){
+				column = left;
+			}else{
+				drawChar(column++, row, c, style);
+			}
+		}
+		return row + 1;
+	}
+
+	/**
+	 * Draws styled text, starting at the given cell. A line break carries on at
+	 * the starting column of the next row, and a carriage return at the starting
+	 * column of the same row. Whatever falls outside the screen is left out.
+	 * Only the ANSI attributes of the text are drawn.
+	 * @return the row after the last one drawn.
+	 */
+	public int draw(int column, int row, ANSIAttributedString text){
+		StyledText data = text.data();
+		char[] source = data.text;
+		int left = column;
+		for(int run = 0;run < data.runCount;++run){
+			long style = data.runStyle(run);
+			int limit = data.offset + data.runLimit(run);
+			for(int i = data.offset + data.runStart(run);i < limit;++i){
+				char c = source[i];
+				if(c == '\n'){
+					++row;
+					column = left;
+				}else if(c == '\r'){
+					column = left;
+				}else{
+					drawChar(column++, row, c, style);
+				}
+			}
+		}
+		return row + 1;
+	}
+
+	private void drawChar(int column, int row, char c, long style){
+		if(column < 0 || column >= columns || row < 0 || row >= rows) return;
+		if(set(row * columns + column, c, style)) markDirty(row, column, column + 1);
+	}
+
+	/**
+	 * Forgets what the terminal shows. The next render clears the terminal and
+	 * draws every cell that is not blank.
+	 */
+	public void invalidate(){
+		valid = false;
+		for(int r = 0;r < rows;++r){
+			dirtyStart[r] = 0;
+			dirtyEnd[r] = columns;
+		}
+	}
+
+	/**
+	 * Writes what has changed since the last render, and takes the result to be
+	 * what the terminal now shows.
+	 */
+	public void render(Appendable out) throws IOException{
+		build();
+		out.append(sbuf);
+	}
+
+	/**
+	 * Returns what has changed since the last render, as render(Appendable) writes
+	 * it.
+	 */
+	public String render(){
+		build();
+		return sbuf.toString();
+	}
+
+	private void build(){
+		sbuf.setLength(0);
+		if(!valid){
+			//Reset the style first, so that the clear leaves the default background.
+			sbuf.append("\033[0m\033[2J");
+			Arrays.fill(shownChars, BLANK);
+			Arrays.fill(shownStyles, ANSIStyle.DEFAULT);
+			termStyle = ANSIStyle.DEFAULT;
+			cursorRow = -1;
+			valid = true;
+		}
+		for(int r = 0;r < rows;++r){
+			if(dirtyStart[r] < dirtyEnd[r]) renderRow(r);
+		}
+	}
+
+	private void renderRow(int row){
+		int base = row * columns;
+		int end = dirtyEnd[row];
+		for(int col = dirtyStart[row];col < end;++col){
+			int cell = base + col;
+			if(chars[cell] == shownChars[cell] && styles[cell] == shownStyles[cell]) continue;
+			if(cursorRow != row || cursorColumn != col) moveTo(row, col);
+			writeCell(cell);
+			cursorColumn = col + 1;
+			//What the cursor does after the last column differs between terminals.
+			if(cursorColumn == columns) cursorRow = -1;
+		}
+		dirtyStart[row] = columns;
+		dirtyEnd[row] = 0;
+	}
+
+	/**
+	 * Moves the cursor, by rewriting the cells in between when the cursor is a
+	 * little way back on the same row and that is shorter than a cursor move.
+	 */
+	private void moveTo(int row, int column){
+		if(cursorRow == row && cursorColumn < column){
+			int base = row * columns;
+			int gap = column - cursorColumn;
+			boolean rewrite = gap < 4 + digits(column + 1);
+			for(int col = cursorColumn;rewrite && col < column;++col){
+				rewrite = shownStyles[base + col] == termStyle && shownChars[base + col] < 0x80;
+			}
+			if(rewrite){
+				sbuf.append(shownChars, base + cursorColumn, gap);
+				return;
+			}
+		}
+		sbuf.append("\033[");
+		if(cursorRow == row){
+			sbuf.append(column + 1).append('G');
+		}else if(row == 0 && column == 0){
+			sbuf.append('H');
+		}else{
+			sbuf.append(row + 1).append(';').append(column + 1).append('H');
+		}
+		cursorRow = row;
+	}
+
+	private void writeCell(int cell){
+		long style = styles[cell];
+		if(style != termStyle){
+			SGREncoder.appendChanges(sbuf, termStyle, style, ANSIEncoding.MINIMAL);
+			termStyle = style;
+		}
+		sbuf.append(chars[cell]);
+		shownChars[cell] = chars[cell];
+		shownStyles[cell] = style;
+	}
+
+	private boolean set(int cell, char c, long style){
+		if(c < 0x20 || c == 0x7F) c = BLANK;
+		if(chars[cell] == c && styles[cell] == style) return false;
+		chars[cell] = c;
+		styles[cell] = style;
+		return true;
+	}
+
+	private void markDirty(int row, int start, int end){
+		if(start < dirtyStart[row]) dirtyStart[row] = start;
+		if(end > dirtyEnd[row]) dirtyEnd[row] = end;
+	}
+
+	private int cell(int column, int row){
+		if(column < 0 || column >= columns || row < 0 || row >= rows) throw new IllegalArgumentException("Invalid cell");
+		return row * columns + column;
+	}
+
+	private static int digits(int n){
+		int count = 1;
+		while(n >= 10){
+			n /= 10;
+			++count;
+		}
+		return count;
+	}
+}
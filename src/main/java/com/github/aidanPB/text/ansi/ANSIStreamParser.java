@@ -0,0 +1,171 @@
+package com.github.aidanPB.text.ansi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * An incremental SGR parser for input that is too large to hold in memory. Text
+ * can be pushed into it in chunks of any size, or pulled from a Reader or
+ * InputStream, and every stretch of plain text is handed to a
+ * {@link SegmentHandler} together with the style in effect for it. The styles
+ * are decoded exactly as ANSIAttributedString.fromString does.
+ * <p>
+ * Escape sequences that are split across chunks are held back until they are
+ * complete. Only such partial sequences are buffered, and they are limited to
+ * {@link #MAX_SEQUENCE_LENGTH} characters, so memory use does not grow with the
+ * input. A longer sequence is passed through as text.
+ * <p>
+ * A parser is not thread-safe.
+ */
+public class ANSIStreamParser {
+
+	/**
+	 * Receives the plain text of the stream, one segment at a time.
+	 */
+	public interface SegmentHandler{
+		/**
+		 * Called for each segment of plain text. The characters are only valid for
+		 * the duration of the call, since they may live in a reused buffer. A run
+		 * of text with the same style may be split over several calls.
+		 * @param text holds the segment.
+		 * @param start the index of the first character of the segment.
+		 * @param end the index after the last character of the segment.
+		 * @param style the packed style (see {@link ANSIStyle}) of the segment.
+		 */
+		void segment(CharSequence text, int start, int end, long style);
+	}
+
+	/**
+	 * The longest escape sequence that will be held back at a chunk boundary.
+	 */
+	public static final int MAX_SEQUENCE_LENGTH = 256;
+
+	private static final int READ_BUFFER_SIZE = 8192;
+
+	private final SegmentHandler handler;
+	private final SGRLexer lexer = new SGRLexer();
+	private final StringBuilder pending = new StringBuilder();
+	private long style = ANSIStyle.DEFAULT;
+	/*
+	 * For the chunk being fed: the metrics, if they are enabled, and the
+	 * sequences and segments seen.
+	 */
+	private ANSIMetrics metrics;
+	private int sequences;
+	private int segments;
+
+	public ANSIStreamParser(SegmentHandler handler){
+		if(handler == null) throw new NullPointerException("handler");
+		this.handler = handler;
+	}
+
+	/**
+	 * Parses the next chunk of the stream.
+	 */
+	public void feed(CharSequence chunk){
+		metrics = ANSIMetrics.active();
+		long start = metrics == null ? 0 : System.nanoTime();
+		sequences = 0;
+		segments = 0;
+		int length = chunk.length();
+		int pos = 0;
+		while(pending.length() > 0 && pos < length){
+			//Extend the held-back sequence up to the next letter, which is where
+			//it either ends or turns out not to be one.
+			int stop = pos;
+			while(stop < length && !SGRLexer.isLetter(chunk.charAt(stop))) ++stop;
+			stop = Math.min(stop + 1, length);
+			pending.append(chunk, pos, stop);
+			pos = stop;
+			int rest = process(pending, 0, pending.length());
+			pending.delete(0, rest);
+			if(pending.length() > MAX_SEQUENCE_LENGTH) flushPending();
+		}
+		if(pos < length){
+			int rest = process(chunk, pos, length);
+			if(length - rest > MAX_SEQUENCE_LENGTH){
+				emit(chunk, rest, length);
+			}else{
+				pending.append(chunk, rest, length);
+			}
+		}
+		if(metrics != null){
+			metrics.parsed(length, false, sequences, segments, start);
+			metrics = null;
+		}
+	}
+
+	/**
+	 * Parses the remaining characters of the given buffer, leaving its position
+	 * at its limit.
+	 */
+	public void feed(CharBuffer chunk){
+		feed((CharSequence) chunk);
+		chunk.position(chunk.limit());
+	}
+
+	/**
+	 * Ends the stream. Anything still held back is passed on as text, and the
+	 * parser is reset to the default style so that it can be fed a new stream.
+	 */
+	public void finish(){
+		flushPending();
+		style = ANSIStyle.DEFAULT;
+	}
+
+	/**
+	 * Parses everything the reader supplies, then {@link #finish() finishes} the
+	 * stream. The reader is not closed.
+	 */
+	public void parse(Reader in) throws IOException{
+		char[] buf = new char[READ_BUFFER_SIZE];
+		CharBuffer chunk = CharBuffer.wrap(buf);
+		int count;
+		while((count = in.read(buf)) != -1){
+			chunk.clear();
+			chunk.limit(count);
+			feed(chunk);
+		}
+		finish();
+	}
+
+	/**
+	 * Decodes and parses everything the stream supplies, then
+	 * {@link #finish() finishes} it. The stream is not closed.
+	 */
+	public void parse(InputStream in, Charset charset) throws IOException{
+		parse(new InputStreamReader(in, charset));
+	}
+
+	/**
+	 * Handles every complete sequence in the given range.
+	 * @return the start of an unfinished sequence at the end of the range, or the
+	 * end of the range if there is none.
+	 */
+	private int process(CharSequence src, int from, int to){
+		int pos = from;
+		while(lexer.find(src, pos, to)){
+			emit(src, pos, lexer.start);
+			pos = lexer.end;
+			style = SGRDecoder.decode(style, lexer, metrics);
+			++sequences;
+		}
+		emit(src, pos, lexer.start);
+		return lexer.start;
+	}
+
+	private void flushPending(){
+		emit(pending, 0, pending.length());
+		pending.setLength(0);
+	}
+
+	private void emit(CharSequence src, int start, int end){
+		if(start == end) return;
+		++segments;
+		handler.segment(src, start, end, style);
+	}
+}
@@ -0,0 +1,123 @@
+package com.github.aidanPB.text.ansi;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Removes SGR sequences from text, for callers that only need the plain text.
+ * The sequences recognised are exactly those that ANSIAttributedString.fromString
+ * removes, but no styles are decoded and no runs are built, and the text
+ * between sequences is copied in bulk. Apart from the String that
+ * {@link #strip(String)} returns when it has to make one, nothing is allocated
+ * per sequence.
+ */
+public final class ANSIStripper {
+
+	private ANSIStripper(){}
+
+	/**
+	 * Returns the text without its SGR sequences. If there are none, the text
+	 * itself is returned.
+	 */
+	public static String strip(String text){
+		int length = text.length();
+		int esc = text.indexOf(SGRLexer.ESC);
+		while(esc >= 0 && SGRLexer.sequenceEnd(text, esc, length) < 0) esc = text.indexOf(SGRLexer.ESC, esc + 1);
+		if(esc < 0) return text;
+		StringBuilder sbuf = new StringBuilder(length);
+		strip(text, sbuf);
+		return sbuf.toString();
+	}
+
+	/**
+	 * Appends the text without its SGR sequences.
+	 */
+	public static void strip(CharSequence text, StringBuilder out){
+		int length = text.length();
+		int pos = 0;
+		int esc = SGRLexer.indexOfEsc(text, 0, length);
+		while(esc >= 0){
+			int end = SGRLexer.sequenceEnd(text, esc, length);
+			if(end >= 0){
+				out.append(text, pos, esc);
+				pos = end;
+				esc = SGRLexer.indexOfEsc(text, end, length);
+			}else{
+				esc = SGRLexer.indexOfEsc(text, esc + 1, length);
+			}
+		}
+		out.append(text, pos, length);
+	}
+
+	/**
+	 * Copies the text without its SGR sequences into an array. The array needs
+	 * room for at most text.length() chars.
+	 * @return the number of chars written.
+	 * @throws IndexOutOfBoundsException if the stripped text does not fit.
+	 */
+	public static int strip(CharSequence text, char[] dest, int offset){
+		int length = text.length();
+		int pos = 0;
+		int written = offset;
+		int esc = SGRLexer.indexOfEsc(text, 0, length);
+		while(esc >= 0){
+			int end = SGRLexer.sequenceEnd(text, esc, length);
+			if(end >= 0){
+				written = copy(text, pos, esc, dest, written);
+				pos = end;
+				esc = SGRLexer.indexOfEsc(text, end, length);
+			}else{
+				esc = SGRLexer.indexOfEsc(text, esc + 1, length);
+			}
+		}
+		written = copy(text, pos, length, dest, written);
+		return written - offset;
+	}
+
+	/**
+	 * Copies the remaining bytes of src, without their SGR sequences, into dest.
+	 * The bytes may be in UTF-8 or any other encoding that keeps ASCII as single
+	 * bytes. The position of src is left at its limit, and that of dest after the
+	 * bytes written.
+	 * @throws java.nio.BufferOverflowException if dest does not have room for the
+	 * stripped bytes.
+	 */
+	public static void strip(ByteBuffer src, ByteBuffer dest){
+		int from = src.position();
+		int to = src.limit();
+		ByteChars text = new ByteChars(src, from, to);
+		ByteBuffer bytes = src.duplicate();
+		int pos = from;
+		int esc = text.indexOf((byte) SGRLexer.ESC, from, to);
+		while(esc >= 0){
+			int end = SGRLexer.sequenceEnd(text, esc, to);
+			if(end >= 0){
+				bytes.limit(esc).position(pos);
+				dest.put(bytes);
+				pos = end;
+				esc = text.indexOf((byte) SGRLexer.ESC, end, to);
+			}else{
+				esc = text.indexOf((byte) SGRLexer.ESC, esc + 1, to);
+			}
+		}
+		bytes.limit(to).position(pos);
+		dest.put(bytes);
+		src.position(to);
+	}
+
+	private static int copy(CharSequence text, int start, int end, char[] dest, int offset){
+		int count = end - start;
+		if(count == 0) return offset;
+		if(offset < 0 || count > dest.length - offset) throw new IndexOutOfBoundsException("Destination array is too small");
+		if(text instanceof String){
+			((String) text).getChars(start, end, dest, offset);
+		}else if(text instanceof StringBuilder){
+			((StringBuilder) text).getChars(start, end, dest, offset);
+		}else{
+			for(int i = start;i < end;++i){
+				dest[offset++] = text.charAt(i);
+			}
+			return offset;
+		}
+		return offset + count;
+	}
+}
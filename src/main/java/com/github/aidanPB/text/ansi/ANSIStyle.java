@@ -0,0 +1,377 @@
+package com.github.aidanPB.text.ansi;
+
+import java.text.AttributedCharacterIterator.Attribute;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.github.aidanPB.text.ansi.ANSIAttributedString.ANSIAttribute;
+import com.github.aidanPB.text.ansi.ANSIAttributedString.ANSIAttribute.AttributeKind;
+import com.github.aidanPB.text.ansi.ANSIAttributedString.ANSIBlinkRate;
+import com.github.aidanPB.text.ansi.ANSIAttributedString.ANSILetterform;
+import com.github.aidanPB.text.ansi.ANSIAttributedString.ANSISurround;
+import com.github.aidanPB.text.ansi.ANSIAttributedString.ANSIWeight;
+
+/**
+ * Static methods for working with styles packed into a single long. A style
+ * holds a value for every ANSIAttribute.AttributeKind, so changing, storing or
+ * comparing one never allocates. The value 0 ({@link #DEFAULT}) is the style of
+ * a terminal that has just been reset.
+ * <p>
+ * The layout is as follows:
+ * <ul>
+ * <li>bits 0-23: foreground colour as 0xRRGGBB, bit 24: foreground colour set</li>
+ * <li>bits 25-48: background colour as 0xRRGGBB, bit 49: background colour set</li>
+ * <li>bits 50-53: underline, overline, strike-out, reverse video</li>
+ * <li>bits 54-63: weight, blink rate, letterform, surround and font, stored as
+ * the digits of a mixed-radix number (3, 3, 3, 3 and 10 values) since they do
+ * not fit into the remaining bits separately</li>
+ * </ul>
+ * Colours without the "set" bit are the terminal's default colours.
+ */
+public final class ANSIStyle {
+
+	/**
+	 * The style in which every attribute has its default value.
+	 */
+	public static final long DEFAULT = 0L;
+
+	/**
+	 * Returned by the colour getters for the terminal's default colour.
+	 */
+	public static final int DEFAULT_COLOR = -1;
+
+	private static final int FG_SHIFT = 0;
+	private static final int BG_SHIFT = 25;
+	private static final long COLOR_MASK = 0x1FFFFFFL;
+	private static final long COLOR_SET = 0x1000000L;
+	private static final long ULINE_BIT = 1L << 50;
+	private static final long OVERLN_BIT = 1L << 51;
+	private static final long STRIKE_BIT = 1L << 52;
+	private static final long REVERSE_BIT = 1L << 53;
+	private static final int FORM_SHIFT = 54;
+
+	private static final int WEIGHT_PLACE = 1;
+	private static final int BLINK_PLACE = 3;
+	private static final int LETTER_PLACE = 9;
+	private static final int SURROUND_PLACE = 27;
+	private static final int FONT_PLACE = 81;
+
+	private static final ANSIWeight[] WEIGHTS = {ANSIWeight.NORMAL, ANSIWeight.BOLD, ANSIWeight.FAINT};
+	private static final ANSIBlinkRate[] BLINK_RATES = ANSIBlinkRate.values();
+	private static final ANSILetterform[] LETTERFORMS = ANSILetterform.values();
+	private static final ANSISurround[] SURROUNDS = ANSISurround.values();
+
+	private ANSIStyle(){}
+
+	public static ANSIWeight getWeight(long style){
+		return WEIGHTS[digit(style, WEIGHT_PLACE, 3)];
+	}
+
+	public static long withWeight(long style, ANSIWeight weight){
+		int value;
+		switch(weight){
+		case BOLD:
+			value = 1;
+			break;
+		case FAINT:
+			value = 2;
+			break;
+		default:
+			value = 0;
+			break;
+		}
+		return withDigit(style, WEIGHT_PLACE, 3, value);
+	}
+
+	public static ANSIBlinkRate getBlinkRate(long style){
+		return BLINK_RATES[digit(style, BLINK_PLACE, 3)];
+	}
+
+	public static long withBlinkRate(long style, ANSIBlinkRate rate){
+		return withDigit(style, BLINK_PLACE, 3, rate.ordinal());
+	}
+
+	public static ANSILetterform getLetterform(long style){
+		return LETTERFORMS[digit(style, LETTER_PLACE, 3)];
+	}
+
+	public static long withLetterform(long style, ANSILetterform form){
+		return withDigit(style, LETTER_PLACE, 3, form.ordinal());
+	}
+
+	public static ANSISurround getSurround(long style){
+		return SURROUNDS[digit(style, SURROUND_PLACE, 3)];
+	}
+
+	public static long withSurround(long style, ANSISurround surround){
+		return withDigit(style, SURROUND_PLACE, 3, surround.ordinal());
+	}
+
+	/**
+	 * Returns the font number, in the range 0-9.
+	 */
+	public static int getFont(long style){
+		return digit(style, FONT_PLACE, 10);
+	}
+
+	public static long withFont(long style, int font){
+		if(font < 0 || font > 9) throw new IllegalArgumentException("Font number out of range: " + font);
+		return withDigit(style, FONT_PLACE, 10, font);
+	}
+
+	public static boolean isUnderlined(long style){
+		return (style & ULINE_BIT) != 0;
+	}
+
+	public static long withUnderline(long style, boolean on){
+		return on ? style | ULINE_BIT : style & ~ULINE_BIT;
+	}
+
+	public static boolean isOverlined(long style){
+		return (style & OVERLN_BIT) != 0;
+	}
+
+	public static long withOverline(long style, boolean on){
+		return on ? style | OVERLN_BIT : style & ~OVERLN_BIT;
+	}
+
+	public static boolean isStruckOut(long style){
+		return (style & STRIKE_BIT) != 0;
+	}
+
+	public static long withStrikeOut(long style, boolean on){
+		return on ? style | STRIKE_BIT : style & ~STRIKE_BIT;
+	}
+
+	public static boolean isReversed(long style){
+		return (style & REVERSE_BIT) != 0;
+	}
+
+	public static long withReverse(long style, boolean on){
+		return on ? style | REVERSE_BIT : style & ~REVERSE_BIT;
+	}
+
+	/**
+	 * Returns the foreground colour as 0xRRGGBB, or DEFAULT_COLOR.
+	 */
+	public static int getForeground(long style){
+		return color(style, FG_SHIFT);
+	}
+
+	/**
+	 * Sets the foreground colour from 0xRRGGBB; a negative value selects the
+	 * default colour.
+	 */
+	public static long withForeground(long style, int rgb){
+		return withColor(style, FG_SHIFT, rgb);
+	}
+
+	/**
+	 * Returns the background colour as 0xRRGGBB, or DEFAULT_COLOR.
+	 */
+	public static int getBackground(long style){
+		return color(style, BG_SHIFT);
+	}
+
+	/**
+	 * Sets the background colour from 0xRRGGBB; a negative value selects the
+	 * default colour.
+	 */
+	public static long withBackground(long style, int rgb){
+		return withColor(style, BG_SHIFT, rgb);
+	}
+
+	/**
+	 * Checks whether two styles agree on one kind of attribute.
+	 */
+	public static boolean sameAttribute(long a, long b, AttributeKind kind){
+		switch(kind){
+		case STRENGTH:
+			return digit(a, WEIGHT_PLACE, 3) == digit(b, WEIGHT_PLACE, 3);
+		case BLINK:
+			return digit(a, BLINK_PLACE, 3) == digit(b, BLINK_PLACE, 3);
+		case FONT:
+			return digit(a, FONT_PLACE, 10) == digit(b, FONT_PLACE, 10);
+		case LETTER:
+			return digit(a, LETTER_PLACE, 3) == digit(b, LETTER_PLACE, 3);
+		case SURROUND:
+			return digit(a, SURROUND_PLACE, 3) == digit(b, SURROUND_PLACE, 3);
+		case UNDERLN:
+			return ((a ^ b) & ULINE_BIT) == 0;
+		case OVERLN:
+			return ((a ^ b) & OVERLN_BIT) == 0;
+		case STRIKE:
+			return ((a ^ b) & STRIKE_BIT) == 0;
+		case REVERSE:
+			return ((a ^ b) & REVERSE_BIT) == 0;
+		case FOREGROUND:
+			return color(a, FG_SHIFT) == color(b, FG_SHIFT);
+		case BACKGROUND:
+			return color(a, BG_SHIFT) == color(b, BG_SHIFT);
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the style with one kind of attribute taken from another style.
+	 */
+	static long copyAttribute(long style, long source, AttributeKind kind){
+		switch(kind){
+		case STRENGTH:
+			return withDigit(style, WEIGHT_PLACE, 3, digit(source, WEIGHT_PLACE, 3));
+		case BLINK:
+			return withDigit(style, BLINK_PLACE, 3, digit(source, BLINK_PLACE, 3));
+		case FONT:
+			return withDigit(style, FONT_PLACE, 10, digit(source, FONT_PLACE, 10));
+		case LETTER:
+			return withDigit(style, LETTER_PLACE, 3, digit(source, LETTER_PLACE, 3));
+		case SURROUND:
+			return withDigit(style, SURROUND_PLACE, 3, digit(source, SURROUND_PLACE, 3));
+		case UNDERLN:
+			return (style & ~ULINE_BIT) | (source & ULINE_BIT);
+		case OVERLN:
+			return (style & ~OVERLN_BIT) | (source & OVERLN_BIT);
+		case STRIKE:
+			return (style & ~STRIKE_BIT) | (source & STRIKE_BIT);
+		case REVERSE:
+			return (style & ~REVERSE_BIT) | (source & REVERSE_BIT);
+		case FOREGROUND:
+			return (style & ~(COLOR_MASK << FG_SHIFT)) | (source & (COLOR_MASK << FG_SHIFT));
+		case BACKGROUND:
+			return (style & ~(COLOR_MASK << BG_SHIFT)) | (source & (COLOR_MASK << BG_SHIFT));
+		}
+		return style;
+	}
+
+	/**
+	 * Returns one attribute of the style as the value an AttributedString would
+	 * hold for the matching ANSIAttribute key.
+	 */
+	public static Object getAttribute(long style, AttributeKind kind){
+		int rgb;
+		switch(kind){
+		case STRENGTH:
+			return getWeight(style);
+		case BLINK:
+			return getBlinkRate(style);
+		case FONT:
+			return Byte.valueOf((byte) getFont(style));
+		case LETTER:
+			return getLetterform(style);
+		case SURROUND:
+			return getSurround(style);
+		case UNDERLN:
+			return isUnderlined(style);
+		case OVERLN:
+			return isOverlined(style);
+		case STRIKE:
+			return isStruckOut(style);
+		case REVERSE:
+			return isReversed(style);
+		case FOREGROUND:
+			rgb = getForeground(style);
+			return rgb == DEFAULT_COLOR ? null : SGRPalette.toColor(rgb);
+		case BACKGROUND:
+			rgb = getBackground(style);
+			return rgb == DEFAULT_COLOR ? null : SGRPalette.toColor(rgb);
+		}
+		return null;
+	}
+
+	/**
+	 * Sets one attribute of the style from an attribute value, which must be of the
+	 * type its ANSIAttribute documents, or null for the default. Colours may be
+	 * given as ANSIColor or java.awt.Color. Any other value, or a font number
+	 * outside 0-9, is rejected with an IllegalArgumentException.
+	 */
+	public static long withAttribute(long style, AttributeKind kind, Object value){
+		switch(kind){
+		case STRENGTH:
+			return withWeight(style, valueOf(kind, value, ANSIWeight.class, ANSIWeight.NORMAL));
+		case BLINK:
+			return withBlinkRate(style, valueOf(kind, value, ANSIBlinkRate.class, ANSIBlinkRate.STEADY));
+		case FONT:
+			int font = valueOf(kind, value, Byte.class, (byte) 0);
+			if(font < 0 || font > 9) throw new IllegalArgumentException("Invalid font number: " + font);
+			return withDigit(style, FONT_PLACE, 10, font);
+		case LETTER:
+			return withLetterform(style, valueOf(kind, value, ANSILetterform.class, ANSILetterform.NORMAL));
+		case SURROUND:
+			return withSurround(style, valueOf(kind, value, ANSISurround.class, ANSISurround.NONE));
+		case UNDERLN:
+			return withUnderline(style, valueOf(kind, value, Boolean.class, false));
+		case OVERLN:
+			return withOverline(style, valueOf(kind, value, Boolean.class, false));
+		case STRIKE:
+			return withStrikeOut(style, valueOf(kind, value, Boolean.class, false));
+		case REVERSE:
+			return withReverse(style, valueOf(kind, value, Boolean.class, false));
+		case FOREGROUND:
+			return withForeground(style, rgbOf(value));
+		case BACKGROUND:
+			return withBackground(style, rgbOf(value));
+		}
+		return style;
+	}
+
+	/**
+	 * Packs the ANSIAttribute entries of an attribute map into a style. Other
+	 * attributes are ignored, and missing ones take their default values.
+	 */
+	public static long fromAttributes(Map<? extends Attribute, ?> attributes){
+		long style = DEFAULT;
+		for(Entry<? extends Attribute, ?> entry : attributes.entrySet()){
+			if(!(entry.getKey() instanceof ANSIAttribute)) continue;
+			style = withAttribute(style, ((ANSIAttribute) entry.getKey()).getKind(), entry.getValue());
+		}
+		return style;
+	}
+
+	/**
+	 * Returns the 0xRRGGBB value of a colour attribute value, or DEFAULT_COLOR for
+	 * null. AWT is only touched for values that are java.awt.Colors, which are
+	 * recognised by class name so that nothing else loads it.
+	 */
+	private static int rgbOf(Object value){
+		if(value instanceof ANSIColor) return ((ANSIColor) value).getRGB();
+		if(value == null) return DEFAULT_COLOR;
+		if(isAWTColor(value.getClass())) return AWTColors.rgbOf(value);
+		throw new IllegalArgumentException("Not a colour: " + value.getClass().getName());
+	}
+
+	/**
+	 * Returns an attribute value of the given type, or the default for null.
+	 */
+	private static <T> T valueOf(AttributeKind kind, Object value, Class<T> type, T defaultValue){
+		if(value == null) return defaultValue;
+		if(type.isInstance(value)) return type.cast(value);
+		throw new IllegalArgumentException("Not a " + kind + " value: " + value.getClass().getName());
+	}
+
+	private static boolean isAWTColor(Class<?> type){
+		for(Class<?> c = type;c != null;c = c.getSuperclass()){
+			if(c.getName().equals("java.awt.Color")) return true;
+		}
+		return false;
+	}
+
+	private static int digit(long style, int place, int radix){
+		return (int) (style >>> FORM_SHIFT) / place % radix;
+	}
+
+	private static long withDigit(long style, int place, int radix, int value){
+		long form = style >>> FORM_SHIFT;
+		form += (value - form / place % radix) * place;
+		return (style & ((1L << FORM_SHIFT) - 1)) | (form << FORM_SHIFT);
+	}
+
+	private static int color(long style, int shift){
+		long bits = (style >>> shift) & COLOR_MASK;
+		return (bits & COLOR_SET) == 0 ? DEFAULT_COLOR : (int) (bits & 0xFFFFFF);
+	}
+
+	private static long withColor(long style, int shift, int rgb){
+		long bits = rgb < 0 ? 0 : (rgb & 0xFFFFFF) | COLOR_SET;
+		return (style & ~(COLOR_MASK << shift)) | (bits << shift);
+	}
+}
@@ -0,0 +1,35 @@
+package com.github.aidanPB.text.ansi;
+
+import java.awt.Color;
+
+/**
+ * Converts between ANSIColor and java.awt.Color, for code that works with AWT.
+ * This is the only class in the package that uses AWT, and it is only loaded
+ * when a Color is actually passed in or asked for.
+ */
+public final class AWTColors {
+
+	private AWTColors(){}
+
+	/**
+	 * Returns the AWT colour with the same RGB components, or null for null.
+	 */
+	public static Color toAWT(ANSIColor color){
+		return color == null ? null : new Color(color.getRGB());
+	}
+
+	/**
+	 * Returns the ANSIColor with the same RGB components, ignoring alpha, or null
+	 * for null.
+	 */
+	public static ANSIColor fromAWT(Color color){
+		return color == null ? null : ANSIColor.valueOf(color.getRGB());
+	}
+
+	/**
+	 * Returns the 0xRRGGBB value of an attribute value that is a Color.
+	 */
+	static int rgbOf(Object value){
+		return ((Color) value).getRGB() & 0xFFFFFF;
+	}
+}
@@ -0,0 +1,104 @@
+package com.github.aidanPB.text.ansi;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Shows a range of bytes as a CharSequence with one char per byte, so that an
+ * {@link SGRLexer} can scan UTF-8 without decoding it. Every byte of a UTF-8
+ * multi-byte character is 0x80 or above, so it can never be mistaken for part
+ * of an escape sequence. Indexes are the absolute indexes of the buffer.
+ */
+final class ByteChars implements CharSequence {
+
+	private final ByteBuffer buffer;
+	private final byte[] array;
+	private final int arrayOffset;
+	private final int start;
+	private final int end;
+
+	ByteChars(ByteBuffer buffer, int start, int end){
+		this.buffer = buffer;
+		this.start = start;
+		this.end = end;
+		if(buffer.hasArray()){
+			array = buffer.array();
+			arrayOffset = buffer.arrayOffset();
+		}else{
+			array = null;
+			arrayOffset = 0;
+		}
+	}
+
+	public int length(){
+		return end;
+	}
+
+	public char charAt(int index){
+		if(index < start || index >= end) throw new IndexOutOfBoundsException(String.valueOf(index));
+		return (char) (byteAt(index) & 0xFF);
+	}
+
+	private byte byteAt(int index){
+		return array != null ? array[arrayOffset + index] : buffer.get(index);
+	}
+
+	/**
+	 * Returns the index of the first byte in the range with the given value, or
+	 * -1.
+	 */
+	int indexOf(byte value, int from, int to){
+		if(array != null){
+			for(int i = from;i < to;++i){
+				if(array[arrayOffset + i] == value) return i;
+			}
+			return -1;
+		}
+		for(int i = from;i < to;++i){
+			if(buffer.get(i) == value) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Counts the chars that the UTF-8 in the range decodes to: one for each byte
+	 * that does not continue a character, and one more for each character outside
+	 * the Basic Multilingual Plane. This is exact for well-formed input.
+	 */
+	int countChars(int from, int to){
+		int count = to - from;
+		if(array != null){
+			for(int i = arrayOffset + from, stop = arrayOffset + to;i < stop;++i){
+				byte b = array[i];
+				if(b < 0) count += adjustment(b);
+			}
+			return count;
+		}
+		for(int i = from;i < to;++i){
+			byte b = buffer.get(i);
+			if(b < 0) count += adjustment(b);
+		}
+		return count;
+	}
+
+	/**
+	 * Continuation bytes (0x80-0xBF) add no char, and the lead bytes of four-byte
+	 * characters (0xF0 and above) add a second one.
+	 */
+	private static int adjustment(byte b){
+		if(b < (byte) 0xC0) return -1;
+		return b >= (byte) 0xF0 ? 1 : 0;
+	}
+
+	public CharSequence subSequence(int from, int to){
+		if(from < start || to > end || from > to) throw new IndexOutOfBoundsException(from + "-" + to);
+		StringBuilder sbuf = new StringBuilder(to - from);
+		for(int i = from;i < to;++i){
+			sbuf.append(charAt(i));
+		}
+		return sbuf;
+	}
+
+	public String toString(){
+		return subSequence(start, end).toString();
+	}
+}
@@ -0,0 +1,97 @@
+package com.github.aidanPB.text.ansi;
+
+import com.github.aidanPB.text.ansi.ANSIAttributedString.ANSIColorDepth;
+
+/**
+ * Maps the colours of packed styles (see {@link ANSIStyle}) onto the colours a
+ * terminal of a given colour depth can show. Colours that a code of that depth
+ * selects exactly are kept; any other colour is replaced with the nearest one
+ * that is available, looked up in a table over all colours with 5 bits per
+ * channel. The tables are built the first time each depth is used.
+ */
+final class ColorQuantizer {
+
+	private ColorQuantizer(){}
+
+	/**
+	 * Reduces the colours of a style to the given depth.
+	 */
+	static long reduce(long style, ANSIColorDepth depth){
+		switch(depth){
+		case ANSI256:
+			return reduce(style, Tables256.FG, Tables256.BG, false);
+		case ANSI16:
+			return reduce(style, Tables16.FG, Tables16.BG, true);
+		case NONE:
+			return ANSIStyle.withBackground(ANSIStyle.withForeground(style, ANSIStyle.DEFAULT_COLOR),
+					ANSIStyle.DEFAULT_COLOR);
+		default:
+			return style;
+		}
+	}
+
+	private static long reduce(long style, int[] fgTable, int[] bgTable, boolean basicOnly){
+		int fg = ANSIStyle.getForeground(style);
+		if(fg != ANSIStyle.DEFAULT_COLOR && !exact(SGRPalette.foregroundCode(fg), basicOnly)){
+			style = ANSIStyle.withForeground(style, fgTable[cell(fg)]);
+		}
+		int bg = ANSIStyle.getBackground(style);
+		if(bg != ANSIStyle.DEFAULT_COLOR && !exact(SGRPalette.backgroundCode(bg), basicOnly)){
+			style = ANSIStyle.withBackground(style, bgTable[cell(bg)]);
+		}
+		return style;
+	}
+
+	private static boolean exact(int code, boolean basicOnly){
+		return code >= 0 && (!basicOnly || code < SGRPalette.INDEXED_CODE);
+	}
+
+	private static int cell(int rgb){
+		return ((rgb >> 9) & 0x7C00) | ((rgb >> 6) & 0x3E0) | ((rgb >> 3) & 0x1F);
+	}
+
+	/**
+	 * Builds a table that maps each 15-bit cell to the candidate nearest to the
+	 * centre of the cell.
+	 */
+	private static int[] buildTable(int[] candidates){
+		int[] table = new int[1 << 15];
+		for(int cell = 0;cell < table.length;++cell){
+			int red = ((cell >> 10) << 3) | 4;
+			int green = (((cell >> 5) & 0x1F) << 3) | 4;
+			int blue = ((cell & 0x1F) << 3) | 4;
+			int best = 0;
+			int bestDistance = Integer.MAX_VALUE;
+			for(int candidate : candidates){
+				int dr = red - (candidate >> 16);
+				int dg = green - ((candidate >> 8) & 0xFF);
+				int db = blue - (candidate & 0xFF);
+				//Weighted for the eye's greater sensitivity to green.
+				int distance = 2 * dr * dr + 4 * dg * dg + 3 * db * db;
+				if(distance < bestDistance){
+					bestDistance = distance;
+					best = candidate;
+				}
+			}
+			table[cell] = best;
+		}
+		return table;
+	}
+
+	private static int[] concat(int[] first, int[] second){
+		int[] result = new int[first.length + second.length];
+		System.arraycopy(first, 0, result, 0, first.length);
+		System.arraycopy(second, 0, result, first.length, second.length);
+		return result;
+	}
+
+	private static final class Tables16{
+		static final int[] FG = buildTable(concat(SGRPalette.BASIC_FG, SGRPalette.BRIGHT));
+		static final int[] BG = buildTable(concat(SGRPalette.BASIC_BG, SGRPalette.BRIGHT));
+	}
+
+	private static final class Tables256{
+		static final int[] FG = buildTable(SGRPalette.INDEXED);
+		static final int[] BG = buildTable(concat(SGRPalette.INDEXED, concat(SGRPalette.BASIC_BG, SGRPalette.BRIGHT)));
+	}
+}
@@ -0,0 +1,266 @@
+package com.github.aidanPB.text.ansi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.github.aidanPB.text.ansi.ANSIAttributedString.ANSIAttribute.AttributeKind;
+import com.github.aidanPB.text.ansi.ANSIAttributedString.ANSIBlinkRate;
+import com.github.aidanPB.text.ansi.ANSIAttributedString.ANSILetterform;
+import com.github.aidanPB.text.ansi.ANSIAttributedString.ANSISurround;
+import com.github.aidanPB.text.ansi.ANSIAttributedString.ANSIWeight;
+
+/**
+ * Parses a large input in chunks on an executor, with the same result as
+ * ANSIAttributedString.fromString.
+ * <p>
+ * A chunk cannot know the style in effect at its start until the chunks before
+ * it are parsed. Every SGR code either leaves a kind of attribute alone or sets
+ * it to a fixed value, so each chunk is parsed twice over at once: from the
+ * default style, and from a probe style that differs from it in every kind. A
+ * kind on which the two agree at some point was set within the chunk; one on
+ * which they differ is still inherited from the start. Once all chunks are
+ * parsed, their start styles follow from one another in a short sequential
+ * pass, and the runs are then resolved in parallel again.
+ */
+final class ParallelParser {
+
+	/**
+	 * The smallest number of source chars worth a chunk of its own.
+	 */
+	static final int MIN_CHUNK = 1 << 18;
+
+	private static final AttributeKind[] KINDS = AttributeKind.values();
+
+	private static final long PROBE;
+
+	static{
+		long probe = ANSIStyle.withWeight(ANSIStyle.DEFAULT, ANSIWeight.BOLD);
+		probe = ANSIStyle.withBlinkRate(probe, ANSIBlinkRate.SLOW);
+		probe = ANSIStyle.withFont(probe, 1);
+		probe = ANSIStyle.withLetterform(probe, ANSILetterform.ITALIC);
+		probe = ANSIStyle.withSurround(probe, ANSISurround.FRAMED);
+		probe = ANSIStyle.withUnderline(probe, true);
+		probe = ANSIStyle.withOverline(probe, true);
+		probe = ANSIStyle.withStrikeOut(probe, true);
+		probe = ANSIStyle.withReverse(probe, true);
+		probe = ANSIStyle.withForeground(probe, 0x000001);
+		PROBE = ANSIStyle.withBackground(probe, 0x000001);
+	}
+
+	private ParallelParser(){}
+
+	static ANSIAttributedString parse(String source, ExecutorService executor) throws InterruptedException{
+		int processors = Runtime.getRuntime().availableProcessors();
+		if(processors < 2) return ANSIAttributedString.fromString(source);
+		return parse(source, executor, Math.min(processors * 4, source.length() / MIN_CHUNK));
+	}
+
+	/**
+	 * Parses the source in about the given number of chunks, or sequentially if
+	 * that is less than two.
+	 */
+	static ANSIAttributedString parse(String source, ExecutorService executor, int chunkCount) throws InterruptedException{
+		int length = source.length();
+		if(chunkCount < 2 || source.indexOf(SGRLexer.ESC) < 0) return ANSIAttributedString.fromString(source);
+		ANSIMetrics metrics = ANSIMetrics.active();
+		long startTime = metrics == null ? 0 : System.nanoTime();
+		final List<Chunk> chunks = new ArrayList<Chunk>(chunkCount);
+		int from = 0;
+		for(int i = 1;i <= chunkCount && from < length;++i){
+			int to = i == chunkCount ? length : splitPoint(source, from, Math.max(from, (int) ((long) length * i / chunkCount)));
+			if(to > from) chunks.add(new Chunk(source, from, to));
+			from = to;
+		}
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(chunks.size());
+		for(final Chunk chunk : chunks){
+			tasks.add(new Callable<Void>(){
+				public Void call(){
+					chunk.parse();
+					return null;
+				}
+			});
+		}
+		await(executor.invokeAll(tasks));
+		long style = ANSIStyle.DEFAULT;
+		int textlen = 0;
+		for(Chunk chunk : chunks){
+			chunk.start = style;
+			chunk.offset = textlen;
+			style = resolve(style, chunk.fromDefault[chunk.count], chunk.fromProbe[chunk.count]);
+			textlen += chunk.length;
+		}
+		final char[] text = new char[textlen];
+		tasks.clear();
+		for(final Chunk chunk : chunks){
+			tasks.add(new Callable<Void>(){
+				public Void call(){
+					chunk.resolve(text);
+					return null;
+				}
+			});
+		}
+		await(executor.invokeAll(tasks));
+		int runCount = 0;
+		for(Chunk chunk : chunks) runCount += chunk.count;
+		StyledText.Runs runs = new StyledText.Runs(runCount);
+		for(Chunk chunk : chunks) runs.addAll(chunk.starts, chunk.fromDefault, chunk.count);
+		StyledText result = runs.toStyledText(text, textlen);
+		if(metrics != null){
+			int sequences = 0;
+			for(Chunk chunk : chunks) sequences += chunk.sequences;
+			metrics.parsed(length, false, sequences, result.runCount, startTime);
+		}
+		return new ANSIAttributedString(result);
+	}
+
+	/**
+	 * Returns the index after the first newline at or after target where no
+	 * sequence can be cut in two, or the length of the source if there is none.
+	 * A sequence has no ASCII letters between its ESC and its final 'm', so none
+	 * spans an index if there is a letter after the last ESC before it. The
+	 * previous split point, from, is such an index, so nothing before it needs to
+	 * be looked at, and each char is looked at once at most.
+	 */
+	private static int splitPoint(String source, int from, int target){
+		//Whether an ESC before target may start a sequence that spans it.
+		boolean open = false;
+		for(int i = target - 1;i >= from;--i){
+			char c = source.charAt(i);
+			if(SGRLexer.isLetter(c)) break;
+			if(c == SGRLexer.ESC){
+				open = true;
+				break;
+			}
+		}
+		int length = source.length();
+		for(int p = target;p < length;++p){
+			char c = source.charAt(p);
+			if(c == '\n'){
+				if(!open) return p + 1;
+			}else if(c == SGRLexer.ESC){
+				open = true;
+			}else if(SGRLexer.isLetter(c)){
+				open = false;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Returns the style reached from the given start, where fromDefault and
+	 * fromProbe are the styles reached from DEFAULT and PROBE.
+	 */
+	private static long resolve(long start, long fromDefault, long fromProbe){
+		if(start == ANSIStyle.DEFAULT || fromDefault == fromProbe) return fromDefault;
+		for(AttributeKind kind : KINDS){
+			if(!ANSIStyle.sameAttribute(fromDefault, fromProbe, kind)){
+				fromDefault = ANSIStyle.copyAttribute(fromDefault, start, kind);
+			}
+		}
+		return fromDefault;
+	}
+
+	private static void await(List<Future<Void>> futures) throws InterruptedException{
+		for(Future<Void> future : futures){
+			try{
+				future.get();
+			}catch(ExecutionException e){
+				Throwable cause = e.getCause();
+				if(cause instanceof RuntimeException) throw (RuntimeException) cause;
+				if(cause instanceof Error) throw (Error) cause;
+				throw new IllegalStateException(cause);
+			}
+		}
+	}
+
+	/**
+	 * A range of the source, its text and its runs. Until it is resolved, each run
+	 * has two styles, as reached from DEFAULT and from PROBE; the entry after the
+	 * last run holds the styles at the end of the chunk.
+	 */
+	private static final class Chunk{
+
+		final String source;
+		final int from, to;
+		char[] text;
+		int length;
+		int[] starts = new int[16];
+		long[] fromDefault = new long[17];
+		long[] fromProbe = new long[17];
+		int count;
+		int sequences;
+		long start;
+		int offset;
+
+		Chunk(String source, int from, int to){
+			this.source = source;
+			this.from = from;
+			this.to = to;
+		}
+
+		void parse(){
+			ANSIMetrics metrics = ANSIMetrics.active();
+			SGRLexer lexer = new SGRLexer();
+			text = new char[to - from];
+			long styleD = ANSIStyle.DEFAULT;
+			long styleP = PROBE;
+			add(0, styleD, styleP);
+			int pos = from;
+			while(lexer.find(source, pos, to)){
+				source.getChars(pos, lexer.start, text, length);
+				length += lexer.start - pos;
+				pos = lexer.end;
+				//Once every kind has been set, the two can no longer differ.
+				long next = SGRDecoder.decode(styleD, lexer, metrics);
+				styleP = styleP == styleD ? next : SGRDecoder.decode(styleP, lexer);
+				styleD = next;
+				add(length, styleD, styleP);
+				++sequences;
+			}
+			source.getChars(pos, to, text, length);
+			length += to - pos;
+			fromDefault[count] = styleD;
+			fromProbe[count] = styleP;
+		}
+
+		/**
+		 * As StyledText.Runs.add, but for pairs of styles.
+		 */
+		private void add(int runStart, long styleD, long styleP){
+			if(count > 0 && starts[count - 1] == runStart) --count;
+			if(count > 0 && fromDefault[count - 1] == styleD && fromProbe[count - 1] == styleP) return;
+			if(count + 1 == fromDefault.length){
+				starts = Arrays.copyOf(starts, count * 2);
+				fromDefault = Arrays.copyOf(fromDefault, count * 2 + 1);
+				fromProbe = Arrays.copyOf(fromProbe, count * 2 + 1);
+			}
+			starts[count] = runStart;
+			fromDefault[count] = styleD;
+			fromProbe[count++] = styleP;
+		}
+
+		/**
+		 * Copies the text into place, and replaces the runs with the real ones,
+		 * moved to their place in the whole text and merged where resolving has made
+		 * neighbours equal.
+		 */
+		void resolve(char[] into){
+			System.arraycopy(text, 0, into, offset, length);
+			text = null;
+			int resolved = 0;
+			for(int i = 0;i < count;++i){
+				long style = ParallelParser.resolve(start, fromDefault[i], fromProbe[i]);
+				if(resolved > 0 && fromDefault[resolved - 1] == style) continue;
+				starts[resolved] = offset + starts[i];
+				fromDefault[resolved++] = style;
+			}
+			count = resolved;
+			fromProbe = null;
+		}
+	}
+}
@@ -0,0 +1,224 @@
+package com.github.aidanPB.text.ansi;
+
+import com.github.aidanPB.text.ansi.ANSIAttributedString.ANSIBlinkRate;
+import com.github.aidanPB.text.ansi.ANSIAttributedString.ANSILetterform;
+import com.github.aidanPB.text.ansi.ANSIAttributedString.ANSISurround;
+import com.github.aidanPB.text.ansi.ANSIAttributedString.ANSIWeight;
+
+/**
+ * Applies the SGR sequences found by an {@link SGRLexer} to packed styles (see
+ * {@link ANSIStyle}). This is shared by every parser in this package, so they
+ * all agree on what each code means.
+ */
+final class SGRDecoder {
+
+	private SGRDecoder(){}
+
+	/**
+	 * Applies the sequence that the lexer last found to a style. The parameters
+	 * are applied from left to right; a sequence without any is a reset.
+	 */
+	static long decode(long style, SGRLexer lexer){
+		return decode(style, lexer, null);
+	}
+
+	/**
+	 * As decode(long, SGRLexer), and tells the metrics, if they are not null,
+	 * about the sequence, each code in it, and each colour it selects.
+	 */
+	static long decode(long style, SGRLexer lexer, ANSIMetrics metrics){
+		int count = lexer.paramCount;
+		if(metrics != null) metrics.sequence();
+		if(count == 0){
+			if(metrics != null) metrics.code(0, true);
+			return ANSIStyle.DEFAULT;
+		}
+		int[] params = lexer.params;
+		boolean[] subParams = lexer.subParams;
+		int i = 0;
+		while(i < count){
+			int sgr = params[i];
+			int groupEnd = i + 1;
+			while(groupEnd < count && subParams[groupEnd]) ++groupEnd;
+			if(metrics != null) metrics.code(sgr, isSupported(sgr));
+			if(sgr == 38 || sgr == 48 || sgr == 58){
+				int rgb;
+				int form = 0;
+				if(groupEnd > i + 1){
+					form = params[i + 1];
+					rgb = colonColor(params, i + 1, groupEnd);
+					i = groupEnd;
+				}else{
+					//The arguments of the ';' form are parameters of their own.
+					rgb = ANSIStyle.DEFAULT_COLOR;
+					++i;
+					if(i < count){
+						form = params[i++];
+						if(form == 5){
+							if(i < count) rgb = indexedColor(params[i++]);
+						}else if(form == 2){
+							if(i + 3 <= count){
+								rgb = truecolor(params[i], params[i + 1], params[i + 2]);
+								i += 3;
+							}else{
+								i = count;
+							}
+						}
+					}
+				}
+				if(sgr == 38){
+					style = ANSIStyle.withForeground(style, rgb);
+				}else if(sgr == 48){
+					style = ANSIStyle.withBackground(style, rgb);
+				}
+				//58 (underline colour) is not supported, but its arguments are skipped.
+				if(metrics != null && sgr != 58 && rgb != ANSIStyle.DEFAULT_COLOR) metrics.color(form == 5);
+				continue;
+			}
+			if(sgr == 4 && groupEnd > i + 1){
+				//"4:0" turns underlining off; the other underline styles are all shown as one.
+				style = ANSIStyle.withUnderline(style, params[i + 1] != 0);
+			}else{
+				style = apply(style, sgr);
+			}
+			//Sub-parameters of other codes are ignored.
+			i = groupEnd;
+		}
+		return style;
+	}
+
+	/**
+	 * Applies a single SGR code that takes no arguments.
+	 */
+	private static long apply(long style, int sgr){
+		switch(sgr){
+		case 0:
+			return ANSIStyle.DEFAULT;
+		case 1:
+			return ANSIStyle.withWeight(style, ANSIWeight.BOLD);
+		case 2:
+			return ANSIStyle.withWeight(style, ANSIWeight.FAINT);
+		case 3:
+			return ANSIStyle.withLetterform(style, ANSILetterform.ITALIC);
+		case 4:
+			return ANSIStyle.withUnderline(style, true);
+		case 5:
+			return ANSIStyle.withBlinkRate(style, ANSIBlinkRate.SLOW);
+		case 6:
+			return ANSIStyle.withBlinkRate(style, ANSIBlinkRate.FAST);
+		case 7:
+			return ANSIStyle.withReverse(style, true);
+		case 8:
+			//Conceal seems like it'd be even rarer than Fraktur. Skip over it for now.
+			return style;
+		case 9:
+			return ANSIStyle.withStrikeOut(style, true);
+		case 10: case 11: case 12: case 13: case 14:
+		case 15: case 16: case 17: case 18: case 19:
+			return ANSIStyle.withFont(style, sgr - 10);
+		case 20:
+			return ANSIStyle.withLetterform(style, ANSILetterform.ITALIC);
+		case 21:
+			//21 is ambiguous, so I ignore it.
+			return style;
+		case 22:
+			return ANSIStyle.withWeight(style, ANSIWeight.NORMAL);
+		case 23:
+			return ANSIStyle.withLetterform(style, ANSILetterform.NORMAL);
+		case 24:
+			return ANSIStyle.withUnderline(style, false);
+		case 25:
+			return ANSIStyle.withBlinkRate(style, ANSIBlinkRate.STEADY);
+		case 26:
+			//Noted as "Reserved"; ignore it.
+			return style;
+		case 27:
+			return ANSIStyle.withReverse(style, false);
+		case 28:
+			//This turns off a feature that I'm ignoring, so it should be ignored.
+			return style;
+		case 29:
+			return ANSIStyle.withStrikeOut(style, false);
+		case 30: case 31: case 32: case 33:
+		case 34: case 35: case 36: case 37:
+			return ANSIStyle.withForeground(style, SGRPalette.BASIC_FG[sgr - 30]);
+		case 39:
+			return ANSIStyle.withForeground(style, ANSIStyle.DEFAULT_COLOR);
+		case 40: case 41: case 42: case 43:
+		case 44: case 45: case 46: case 47:
+			return ANSIStyle.withBackground(style, SGRPalette.BASIC_BG[sgr - 40]);
+		case 49:
+			return ANSIStyle.withBackground(style, ANSIStyle.DEFAULT_COLOR);
+		case 50:
+			//Reserved and ignored.
+			return style;
+		case 51:
+			return ANSIStyle.withSurround(style, ANSISurround.FRAMED);
+		case 52:
+			return ANSIStyle.withSurround(style, ANSISurround.ENCIRCLED);
+		case 53:
+			return ANSIStyle.withOverline(style, true);
+		case 54:
+			return ANSIStyle.withSurround(style, ANSISurround.NONE);
+		case 55:
+			return ANSIStyle.withOverline(style, false);
+		case 90: case 91: case 92: case 93:
+		case 94: case 95: case 96: case 97:
+			return ANSIStyle.withForeground(style, SGRPalette.BRIGHT[sgr - 90]);
+		case 100: case 101: case 102: case 103:
+		case 104: case 105: case 106: case 107:
+			return ANSIStyle.withBackground(style, SGRPalette.BRIGHT[sgr - 100]);
+		default:
+			//ignore anything else for now.
+			return style;
+		}
+	}
+
+	/**
+	 * Checks whether a code has any effect in decode: false for the ones that
+	 * apply ignores, and for 58, whose arguments are only skipped. This has to be
+	 * kept in step with apply.
+	 */
+	private static boolean isSupported(int sgr){
+		if(sgr >= 90) return sgr <= 97 || (sgr >= 100 && sgr <= 107);
+		if(sgr > 55) return false;
+		return sgr != 8 && sgr != 21 && sgr != 26 && sgr != 28 && sgr != 50;
+	}
+
+	/**
+	 * Reads the colour of a 38, 48 or 58 code in the ':' form from its
+	 * sub-parameters: "5:n" from the 256-colour palette, or "2:r:g:b" with or
+	 * without a colour space id before r. Anything else selects the default
+	 * colour.
+	 */
+	private static int colonColor(int[] params, int from, int to){
+		int form = params[from];
+		int args = to - from - 1;
+		if(form == 5 && args >= 1) return indexedColor(params[from + 1]);
+		if(form == 2 && args >= 4) return truecolor(params[from + 2], params[from + 3], params[from + 4]);
+		if(form == 2 && args == 3) return truecolor(params[from + 1], params[from + 2], params[from + 3]);
+		return ANSIStyle.DEFAULT_COLOR;
+	}
+
+	private static int truecolor(int red, int green, int blue){
+		return (truecolorComponent(red) << 16) | (truecolorComponent(green) << 8) | truecolorComponent(blue);
+	}
+
+	static int indexedColor(int bytecolour){
+		if(bytecolour < 256) return SGRPalette.INDEXED[bytecolour];
+		//Out of range, but kept as the greyscale formula has always treated it.
+		return SGRPalette.grey((bytecolour - 0xE8) / 24f);
+	}
+
+	/**
+	 * Components above 255 are read as thousandths of full intensity.
+	 */
+	private static int truecolorComponent(int bits){
+		if(bits > 999) return 255;
+		if(bits > 255){
+			float fraction = bits / 1000f;
+			return (int) (fraction * 256);
+		}
+		return bits;
+	}
+}
@@ -0,0 +1,191 @@
+package com.github.aidanPB.text.ansi;
+
+import com.github.aidanPB.text.ansi.ANSIAttributedString.ANSIAttribute.AttributeKind;
+import com.github.aidanPB.text.ansi.ANSIAttributedString.ANSIEncoding;
+
+/**
+ * Writes the SGR sequences that select the attributes of packed styles (see
+ * {@link ANSIStyle}).
+ */
+final class SGREncoder {
+
+	private static final AttributeKind[] KINDS = AttributeKind.values();
+
+	private SGREncoder(){}
+
+	/**
+	 * Writes the sequences that change the first style into the second, in the
+	 * given encoding.
+	 */
+	static void appendChanges(StringBuilder sbuf, long from, long to, ANSIEncoding encoding){
+		if(encoding == ANSIEncoding.MINIMAL){
+			appendMinimalChanges(sbuf, from, to);
+		}else{
+			appendChanges(sbuf, from, to);
+		}
+	}
+
+	/**
+	 * Writes one sequence for each kind of attribute that differs between the two
+	 * styles.
+	 */
+	static void appendChanges(StringBuilder sbuf, long from, long to){
+		if(from == to) return;
+		for(AttributeKind kind : KINDS){
+			if(!ANSIStyle.sameAttribute(from, to, kind)) appendAttribute(sbuf, to, kind);
+		}
+	}
+
+	/**
+	 * Writes a single sequence that changes the first style into the second. It
+	 * holds the parameters of the kinds that differ, or a reset followed by the
+	 * parameters of the kinds that the second style does not have at their
+	 * defaults, whichever is shorter.
+	 */
+	static void appendMinimalChanges(StringBuilder sbuf, long from, long to){
+		if(from == to) return;
+		sbuf.append("\033[");
+		int changesStart = sbuf.length();
+		appendParams(sbuf, from, to);
+		int resetStart = sbuf.length();
+		sbuf.append('0');
+		if(to != ANSIStyle.DEFAULT){
+			sbuf.append(';');
+			appendParams(sbuf, ANSIStyle.DEFAULT, to);
+		}
+		if(sbuf.length() - resetStart < resetStart - changesStart){
+			sbuf.delete(changesStart, resetStart);
+		}else{
+			sbuf.setLength(resetStart);
+		}
+		sbuf.append('m');
+	}
+
+	/**
+	 * Writes the parameters of the kinds that differ between the two styles,
+	 * separated by semicolons.
+	 */
+	private static void appendParams(StringBuilder sbuf, long from, long to){
+		boolean first = true;
+		for(AttributeKind kind : KINDS){
+			if(ANSIStyle.sameAttribute(from, to, kind)) continue;
+			if(!first) sbuf.append(';');
+			appendParam(sbuf, to, kind);
+			first = false;
+		}
+	}
+
+	/**
+	 * Writes the sequence that selects one kind of attribute of a style.
+	 */
+	static void appendAttribute(StringBuilder sbuf, long style, AttributeKind kind){
+		sbuf.append("\033[");
+		appendParam(sbuf, style, kind);
+		sbuf.append('m');
+	}
+
+	/**
+	 * Writes the parameters that select one kind of attribute of a style.
+	 */
+	private static void appendParam(StringBuilder sbuf, long style, AttributeKind kind){
+		int code;
+		switch(kind){
+		case BACKGROUND:
+			appendColor(sbuf, ANSIStyle.getBackground(style), 40);
+			return;
+		case BLINK:
+			switch(ANSIStyle.getBlinkRate(style)){
+			case FAST:
+				code = 6;
+				break;
+			case SLOW:
+				code = 5;
+				break;
+			default:
+				code = 25;
+				break;
+			}
+			break;
+		case FONT:
+			code = 10 + ANSIStyle.getFont(style);
+			break;
+		case FOREGROUND:
+			appendColor(sbuf, ANSIStyle.getForeground(style), 30);
+			return;
+		case LETTER:
+			switch(ANSIStyle.getLetterform(style)){
+			case ITALIC:
+				code = 3;
+				break;
+			case FRAKTUR:
+				code = 20;
+				break;
+			default:
+				code = 23;
+				break;
+			}
+			break;
+		case OVERLN:
+			code = ANSIStyle.isOverlined(style) ? 53 : 55;
+			break;
+		case REVERSE:
+			code = ANSIStyle.isReversed(style) ? 7 : 27;
+			break;
+		case STRENGTH:
+			switch(ANSIStyle.getWeight(style)){
+			case BOLD:
+				code = 1;
+				break;
+			case FAINT:
+				code = 2;
+				break;
+			default:
+				code = 22;
+				break;
+			}
+			break;
+		case STRIKE:
+			code = ANSIStyle.isStruckOut(style) ? 9 : 29;
+			break;
+		case SURROUND:
+			switch(ANSIStyle.getSurround(style)){
+			case ENCIRCLED:
+				code = 52;
+				break;
+			case FRAMED:
+				code = 51;
+				break;
+			default:
+				code = 54;
+				break;
+			}
+			break;
+		case UNDERLN:
+			code = ANSIStyle.isUnderlined(style) ? 4 : 24;
+			break;
+		default:
+			return;
+		}
+		sbuf.append(code);
+	}
+
+	/**
+	 * Writes the parameters of a colour; base is 30 for the foreground and 40 for
+	 * the background.
+	 */
+	private static void appendColor(StringBuilder sbuf, int rgb, int base){
+		if(rgb == ANSIStyle.DEFAULT_COLOR){
+			sbuf.append(base + 9);
+			return;
+		}
+		int code = base == 30 ? SGRPalette.foregroundCode(rgb) : SGRPalette.backgroundCode(rgb);
+		if(code >= SGRPalette.INDEXED_CODE){
+			sbuf.append(base + 8).append(";5;").append(code - SGRPalette.INDEXED_CODE);
+		}else if(code >= 0){
+			sbuf.append(code);
+		}else{
+			sbuf.append(base + 8).append(';').append(2).append(';').append(rgb >> 16)
+					.append(';').append((rgb >> 8) & 0xFF).append(';').append(rgb & 0xFF);
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package com.github.aidanPB.text.ansi;
+
+import java.util.Arrays;
+
+/**
+ * A single-pass scanner for SGR escape sequences. It recognises exactly the
+ * sequences matched by the pattern
+ * <code>\e\[(?:(\d{1,3})((?:;\d{1,3})*))?([^a-zA-Z]+?)?m</code>, that is an ESC,
+ * a '[', any run of characters that are not ASCII letters and a terminating 'm'.
+ * The parameters, separated by ';' and with sub-parameters separated by ':', are
+ * read straight into an int array, so no substrings are created while scanning.
+ * <p>
+ * A lexer is not thread-safe, but it can be reused for any number of inputs.
+ */
+final class SGRLexer {
+
+	static final char ESC = '\033';
+
+	/**
+	 * The start (inclusive) and end (exclusive) of the last sequence found. When
+	 * {@link #find(CharSequence, int, int)} fails, start is the index of an ESC
+	 * whose sequence was cut off by the end of the input, or the end of the input
+	 * if there is none.
+	 */
+	int start, end;
+
+	/**
+	 * The parameters of the last sequence found, in order, with an empty
+	 * parameter read as 0. They are read up to the first character that is not a
+	 * digit, ';' or ':'; anything after that up to the 'm' is skipped. Values
+	 * above MAX_PARAM are read as MAX_PARAM.
+	 */
+	int[] params = new int[8];
+	int paramCount;
+
+	/**
+	 * Whether each parameter followed a ':', which makes it a sub-parameter of the
+	 * one before it (as in "38:2::255:128:0").
+	 */
+	boolean[] subParams = new boolean[8];
+
+	static final int MAX_PARAM = 65535;
+
+	/**
+	 * Looks for the next SGR sequence in the given range of the source.
+	 * @return true if a complete sequence was found.
+	 */
+	boolean find(CharSequence src, int from, int to){
+		int i = from;
+		while(true){
+			int esc = indexOfEsc(src, i, to);
+			if(esc < 0){
+				start = end = to;
+				return false;
+			}
+			int p = esc + 1;
+			if(p < to && src.charAt(p) != '['){
+				i = p;
+				continue;
+			}
+			p = readParams(src, p + 1, to);
+			while(p < to && !isLetter(src.charAt(p))) ++p;
+			if(p >= to){
+				start = esc;
+				end = to;
+				return false;
+			}
+			if(src.charAt(p) != 'm'){
+				i = esc + 1;
+				continue;
+			}
+			start = esc;
+			end = p + 1;
+			return true;
+		}
+	}
+
+	/**
+	 * Returns the end of the SGR sequence that starts with the ESC at the given
+	 * index, or -1 if there is no complete sequence there. This matches exactly as
+	 * {@link #find(CharSequence, int, int)} does, but reads no parameters.
+	 */
+	static int sequenceEnd(CharSequence src, int esc, int to){
+		int p = esc + 1;
+		if(p >= to || src.charAt(p) != '[') return -1;
+		for(++p;p < to;++p){
+			char c = src.charAt(p);
+			if(isLetter(c)) return c == 'm' ? p + 1 : -1;
+		}
+		return -1;
+	}
+
+	/**
+	 * Reads the parameters that start at p, if there are any.
+	 * @return the index after them.
+	 */
+	private int readParams(CharSequence src, int p, int to){
+		paramCount = 0;
+		if(p >= to || !isParamChar(src.charAt(p))) return p;
+		boolean sub = false;
+		while(true){
+			int value = 0;
+			char c;
+			while(p < to && isDigit(c = src.charAt(p))){
+				value = Math.min(value * 10 + (c - '0'), MAX_PARAM);
+				++p;
+			}
+			if(paramCount == params.length){
+				params = Arrays.copyOf(params, paramCount * 2);
+				subParams = Arrays.copyOf(subParams, paramCount * 2);
+			}
+			subParams[paramCount] = sub;
+			params[paramCount++] = value;
+			if(p >= to) return p;
+			c = src.charAt(p);
+			if(c == ';'){
+				sub = false;
+			}else if(c == ':'){
+				sub = true;
+			}else{
+				return p;
+			}
+			++p;
+		}
+	}
+
+	static int indexOfEsc(CharSequence src, int from, int to){
+		if(src instanceof String){
+			int i = ((String) src).indexOf(ESC, from);
+			return i < to ? i : -1;
+		}
+		if(src instanceof ByteChars) return ((ByteChars) src).indexOf((byte) ESC, from, to);
+		for(int i = from;i < to;++i){
+			if(src.charAt(i) == ESC) return i;
+		}
+		return -1;
+	}
+
+	private static boolean isDigit(char c){
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isParamChar(char c){
+		return isDigit(c) || c == ';' || c == ':';
+	}
+
+	static boolean isLetter(char c){
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+}
@@ -0,0 +1,134 @@
+package com.github.aidanPB.text.ansi;
+
+/**
+ * The colours that SGR codes select, as 0xRRGGBB, and lookup tables between them
+ * and the codes. Everything is computed once when the class is loaded, so
+ * decoding, encoding and handing out ANSIColor values are table lookups.
+ */
+final class SGRPalette {
+
+	/**
+	 * The colours of codes 30-37 and of indexes 0-7 of the 256-colour palette.
+	 */
+	static final int[] BASIC_FG = {0x000000, 0xB20000, 0x00B200, 0xB2B200, 0x0000B2, 0xB200B2, 0x00B2B2, 0xC0C0C0};
+
+	/**
+	 * The colours of codes 40-47.
+	 */
+	static final int[] BASIC_BG = {0x000000, 0x7C0000, 0x007C00, 0x7C7C00, 0x00007C, 0x7C007C, 0x007C7C, 0x808080};
+
+	/**
+	 * The colours of codes 90-97 and 100-107, and of indexes 8-15 of the
+	 * 256-colour palette.
+	 */
+	static final int[] BRIGHT = {0x000000, 0xFF0000, 0x00FF00, 0xFFFF00, 0x0000FF, 0xFF00FF, 0x00FFFF, 0xFFFFFF};
+
+	/**
+	 * The colours of the 256-colour palette ("38;5;n" and "48;5;n").
+	 */
+	static final int[] INDEXED = new int[256];
+
+	/**
+	 * Added to a palette index in the results of {@link #foregroundCode(int)} and
+	 * {@link #backgroundCode(int)}, to tell it apart from a plain SGR code.
+	 */
+	static final int INDEXED_CODE = 0x1000;
+
+	private static final int TABLE_SIZE = 512;
+	private static final int KEY_SET = 0x1000000;
+
+	/*
+	 * An open-addressing hash table over every colour above. A key is the colour
+	 * with KEY_SET added, so that 0 marks an empty slot.
+	 */
+	private static final int[] KEYS = new int[TABLE_SIZE];
+	private static final int[] FG_CODES = new int[TABLE_SIZE];
+	private static final int[] BG_CODES = new int[TABLE_SIZE];
+	private static final ANSIColor[] COLORS = new ANSIColor[TABLE_SIZE];
+
+	static{
+		for(int i = 0;i < 8;++i){
+			INDEXED[i] = BASIC_FG[i];
+			INDEXED[i + 8] = BRIGHT[i];
+		}
+		for(int i = 0;i < 216;++i){
+			int rbits = (i / 36 * 128) / 3;
+			int gbits = (i / 6 % 6 * 128) / 3;
+			int bbits = (i % 6 * 128) / 3;
+			INDEXED[i + 16] = (rbits << 16) | (gbits << 8) | bbits;
+		}
+		for(int i = 0;i < 24;++i){
+			INDEXED[i + 232] = grey(i / 24f);
+		}
+		//Earlier entries win, so the codes are filled in from the shortest form up.
+		for(int i = 0;i < 8;++i){
+			put(BASIC_FG[i], 30 + i, -1);
+			put(BASIC_BG[i], -1, 40 + i);
+		}
+		for(int i = 1;i < 8;++i){
+			put(BRIGHT[i], 90 + i, 100 + i);
+		}
+		for(int i = 0;i < 256;++i){
+			put(INDEXED[i], INDEXED_CODE + i, INDEXED_CODE + i);
+		}
+	}
+
+	private SGRPalette(){}
+
+	private static void put(int rgb, int fgCode, int bgCode){
+		int slot = slot(rgb);
+		if(KEYS[slot] == 0){
+			KEYS[slot] = rgb | KEY_SET;
+			FG_CODES[slot] = -1;
+			BG_CODES[slot] = -1;
+			COLORS[slot] = new ANSIColor(rgb);
+		}
+		if(FG_CODES[slot] < 0) FG_CODES[slot] = fgCode;
+		if(BG_CODES[slot] < 0) BG_CODES[slot] = bgCode;
+	}
+
+	/**
+	 * Returns the slot that holds the colour, or the empty slot where it would go.
+	 */
+	private static int slot(int rgb){
+		int key = rgb | KEY_SET;
+		int slot = (key * 0x9E3779B9) >>> 23;
+		while(KEYS[slot] != 0 && KEYS[slot] != key) slot = (slot + 1) & (TABLE_SIZE - 1);
+		return slot;
+	}
+
+	/**
+	 * Returns the shortest way to select a colour as the foreground: an SGR code,
+	 * INDEXED_CODE plus a palette index, or -1 if only "38;2;r;g;b" will do.
+	 */
+	static int foregroundCode(int rgb){
+		int slot = slot(rgb);
+		return KEYS[slot] == 0 ? -1 : FG_CODES[slot];
+	}
+
+	/**
+	 * As foregroundCode, for the background.
+	 */
+	static int backgroundCode(int rgb){
+		int slot = slot(rgb);
+		return KEYS[slot] == 0 ? -1 : BG_CODES[slot];
+	}
+
+	/**
+	 * Returns an ANSIColor for 0xRRGGBB, shared if it is one of the colours above.
+	 */
+	static ANSIColor toColor(int rgb){
+		int slot = slot(rgb);
+		return KEYS[slot] == 0 ? new ANSIColor(rgb) : COLORS[slot];
+	}
+
+	/**
+	 * Returns the grey of the given brightness, rounded as java.awt.Color.HSBtoRGB
+	 * rounds it. Brightnesses above 1 overflow into the neighbouring components,
+	 * also as HSBtoRGB does.
+	 */
+	static int grey(float brightness){
+		int level = (int) (brightness * 255.0f + 0.5f);
+		return ((level << 16) | (level << 8) | level) & 0xFFFFFF;
+	}
+}
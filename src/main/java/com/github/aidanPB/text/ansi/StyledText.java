@@ -0,0 +1,188 @@
+package com.github.aidanPB.text.ansi;
+
+import java.util.Arrays;
+
+import com.github.aidanPB.text.ansi.ANSIAttributedString.ANSIAttribute.AttributeKind;
+
+/**
+ * Plain text together with its style runs: each run starts at an index of the
+ * text and has one packed style (see {@link ANSIStyle}). Runs cover the whole
+ * text, and neighbouring runs always have different styles.
+ * <p>
+ * Instances are never changed after construction; restyling a range creates a
+ * new one. A slice shares the arrays of the text it was taken from: its text
+ * starts at offset in the char array and its runs at firstRun in the run arrays,
+ * whose starts are indexes of the char array. The first run of a slice may start
+ * before the slice does, so the methods below should be used rather than the
+ * arrays wherever a text may be a slice.
+ */
+final class StyledText {
+
+	static final StyledText EMPTY = new StyledText(new char[0], 0, new int[0], new long[0], 0);
+
+	final char[] text;
+	final int offset;
+	final int length;
+	final int[] runStarts;
+	final long[] runStyles;
+	final int firstRun;
+	final int runCount;
+
+	StyledText(char[] text, int length, int[] runStarts, long[] runStyles, int runCount){
+		this(text, 0, length, runStarts, runStyles, 0, runCount);
+	}
+
+	StyledText(char[] text, int offset, int length, int[] runStarts, long[] runStyles, int firstRun, int runCount){
+		this.text = text;
+		this.offset = offset;
+		this.length = length;
+		this.runStarts = runStarts;
+		this.runStyles = runStyles;
+		this.firstRun = firstRun;
+		this.runCount = runCount;
+	}
+
+	/**
+	 * Creates an unstyled text.
+	 */
+	static StyledText of(char[] text, int length){
+		if(length == 0) return EMPTY;
+		return new StyledText(text, length, new int[]{0}, new long[]{ANSIStyle.DEFAULT}, 1);
+	}
+
+	char charAt(int index){
+		return text[offset + index];
+	}
+
+	/**
+	 * Returns the index of the run that contains the given index of the text.
+	 */
+	int runIndex(int index){
+		int target = offset + index;
+		int low = firstRun;
+		int high = firstRun + runCount - 1;
+		while(low < high){
+			int mid = (low + high + 1) >>> 1;
+			if(runStarts[mid] <= target){
+				low = mid;
+			}else{
+				high = mid - 1;
+			}
+		}
+		return low - firstRun;
+	}
+
+	int runStart(int run){
+		return run == 0 ? 0 : runStarts[firstRun + run] - offset;
+	}
+
+	int runLimit(int run){
+		return run + 1 < runCount ? runStarts[firstRun + run + 1] - offset : length;
+	}
+
+	long runStyle(int run){
+		return runStyles[firstRun + run];
+	}
+
+	long styleAt(int index){
+		return runStyles[firstRun + runIndex(index)];
+	}
+
+	/**
+	 * Returns a view of a range of the text, which shares this text's arrays.
+	 */
+	StyledText slice(int begin, int end){
+		if(begin == 0 && end == length) return this;
+		if(begin == end) return EMPTY;
+		int first = runIndex(begin);
+		int last = runIndex(end - 1);
+		return new StyledText(text, offset + begin, end - begin, runStarts, runStyles, firstRun + first, last - first + 1);
+	}
+
+	/**
+	 * Returns a copy in which one kind of attribute is set to the given value
+	 * over a range of the text. The copy shares the chars of this text.
+	 */
+	StyledText withAttribute(AttributeKind kind, Object value, int begin, int end){
+		Runs runs = new Runs(runCount + 2);
+		for(int i = 0;i < runCount;++i){
+			int start = runStart(i);
+			int limit = runLimit(i);
+			long style = runStyle(i);
+			if(limit <= begin || start >= end){
+				runs.add(offset + start, style);
+				continue;
+			}
+			if(start < begin) runs.add(offset + start, style);
+			runs.add(offset + Math.max(start, begin), ANSIStyle.withAttribute(style, kind, value));
+			if(limit > end) runs.add(offset + end, style);
+		}
+		return runs.toStyledText(text, offset, length);
+	}
+
+	/**
+	 * A growable list of runs, which merges a run into the previous one when they
+	 * have the same style.
+	 */
+	static final class Runs{
+
+		int[] starts;
+		long[] styles;
+		int count;
+
+		Runs(int capacity){
+			starts = new int[Math.max(capacity, 1)];
+			styles = new long[starts.length];
+		}
+
+		/**
+		 * Starts a new run. Runs must be added in order of their start; a run that
+		 * starts where the previous one did replaces it.
+		 */
+		void add(int start, long style){
+			if(count > 0 && starts[count - 1] == start) --count;
+			if(count > 0 && styles[count - 1] == style) return;
+			if(count == starts.length){
+				starts = Arrays.copyOf(starts, count * 2);
+				styles = Arrays.copyOf(styles, count * 2);
+			}
+			starts[count] = start;
+			styles[count++] = style;
+		}
+
+		/**
+		 * Adds runs that are already in order and merged with one another, so that
+		 * only the first of them can need merging with the runs before.
+		 */
+		void addAll(int[] newStarts, long[] newStyles, int newCount){
+			if(newCount == 0) return;
+			add(newStarts[0], newStyles[0]);
+			if(count + newCount - 1 > starts.length){
+				starts = Arrays.copyOf(starts, Math.max(count + newCount - 1, count * 2));
+				styles = Arrays.copyOf(styles, starts.length);
+			}
+			System.arraycopy(newStarts, 1, starts, count, newCount - 1);
+			System.arraycopy(newStyles, 1, styles, count, newCount - 1);
+			count += newCount - 1;
+		}
+
+		/**
+		 * Hands the runs to a new StyledText, dropping an empty run at the end.
+		 */
+		StyledText toStyledText(char[] text, int length){
+			return toStyledText(text, 0, length);
+		}
+
+		/**
+		 * As toStyledText(char[], int), for a text that starts at the given offset
+		 * of the array; the run starts must be indexes of the array.
+		 */
+		StyledText toStyledText(char[] text, int offset, int length){
+			if(length == 0) return EMPTY;
+			if(count == 0) return offset == 0 ? StyledText.of(text, length)
+					: new StyledText(text, offset, length, new int[]{offset}, new long[]{ANSIStyle.DEFAULT}, 0, 1);
+			if(starts[count - 1] == offset + length) --count;
+			return new StyledText(text, offset, length, starts, styles, 0, count);
+		}
+	}
+}
@@ -0,0 +1,257 @@
+package com.github.aidanPB.text.ansi;
+
+import java.text.AttributedCharacterIterator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.github.aidanPB.text.ansi.ANSIAttributedString.ANSIAttribute;
+import com.github.aidanPB.text.ansi.ANSIAttributedString.ANSIAttribute.AttributeKind;
+
+/**
+ * Iterates over a range of a {@link StyledText}. The ANSI attributes come from
+ * the style runs; attributes of any other kind come from a second iterator over
+ * the same text, which is kept at the same index. Attributes at their default
+ * values are not reported.
+ * <p>
+ * As with the iterators of AttributedString, every attribute is reported, and
+ * the relevant attributes only decide the runs of getRunStart() and
+ * getRunLimit().
+ */
+final class StyledTextIterator implements AttributedCharacterIterator, Cloneable {
+
+	static final int ALL_KINDS = (1 << AttributeKind.values().length) - 1;
+
+	private static final AttributeKind[] KINDS = AttributeKind.values();
+
+	private final StyledText data;
+	private final int begin;
+	private final int end;
+	private final int kindMask;
+	private AttributedCharacterIterator others;
+	private final Set<Attribute> relevantOthers;
+	private int index;
+	private int run;
+
+	/**
+	 * @param kindMask has bit n set if attributes of the kind with ordinal n are
+	 * relevant.
+	 * @param others iterates over the same range for all other attributes, or is
+	 * null if there are none.
+	 * @param relevantOthers the relevant attributes of the other iterator, or null
+	 * for all of them.
+	 */
+	StyledTextIterator(StyledText data, int begin, int end, int kindMask, AttributedCharacterIterator others,
+			Set<Attribute> relevantOthers){
+		this.data = data;
+		this.begin = begin;
+		this.end = end;
+		this.kindMask = kindMask;
+		this.others = others;
+		if(others == null){
+			relevantOthers = null;
+		}else if(relevantOthers == null){
+			relevantOthers = others.getAllAttributeKeys();
+		}
+		this.relevantOthers = relevantOthers == null || relevantOthers.isEmpty() ? null : relevantOthers;
+		moveTo(begin);
+	}
+
+	private char moveTo(int newIndex){
+		index = newIndex;
+		if(index < end){
+			if(run >= data.runCount || index < data.runStart(run) || index >= data.runLimit(run)){
+				if(run + 1 < data.runCount && index >= data.runStart(run + 1) && index < data.runLimit(run + 1)){
+					++run;
+				}else{
+					run = data.runIndex(index);
+				}
+			}
+		}
+		if(others != null) others.setIndex(index);
+		return current();
+	}
+
+	public char first(){
+		return moveTo(begin);
+	}
+
+	public char last(){
+		return moveTo(end > begin ? end - 1 : end);
+	}
+
+	public char current(){
+		return index < end ? data.charAt(index) : DONE;
+	}
+
+	public char next(){
+		if(index >= end - 1){
+			moveTo(end);
+			return DONE;
+		}
+		return moveTo(index + 1);
+	}
+
+	public char previous(){
+		if(index <= begin) return DONE;
+		return moveTo(index - 1);
+	}
+
+	public char setIndex(int position){
+		if(position < begin || position > end) throw new IllegalArgumentException("Invalid index");
+		return moveTo(position);
+	}
+
+	public int getBeginIndex(){
+		return begin;
+	}
+
+	public int getEndIndex(){
+		return end;
+	}
+
+	public int getIndex(){
+		return index;
+	}
+
+	public int getRunStart(){
+		int start = runStart(kindMask);
+		if(relevantOthers != null) start = Math.max(start, others.getRunStart(relevantOthers));
+		return start;
+	}
+
+	public int getRunStart(Attribute attribute){
+		if(attribute instanceof ANSIAttribute){
+			return runStart(maskOf(((ANSIAttribute) attribute).getKind()));
+		}
+		return others == null ? (index < end ? begin : end) : others.getRunStart(attribute);
+	}
+
+	public int getRunStart(Set<? extends Attribute> attributes){
+		int start = runStart(maskOf(attributes));
+		Set<? extends Attribute> otherAttributes = otherAttributes(attributes);
+		if(otherAttributes != null) start = Math.max(start, others.getRunStart(otherAttributes));
+		return start;
+	}
+
+	public int getRunLimit(){
+		int limit = runLimit(kindMask);
+		if(relevantOthers != null) limit = Math.min(limit, others.getRunLimit(relevantOthers));
+		return limit;
+	}
+
+	public int getRunLimit(Attribute attribute){
+		if(attribute instanceof ANSIAttribute){
+			return runLimit(maskOf(((ANSIAttribute) attribute).getKind()));
+		}
+		return others == null ? end : others.getRunLimit(attribute);
+	}
+
+	public int getRunLimit(Set<? extends Attribute> attributes){
+		int limit = runLimit(maskOf(attributes));
+		Set<? extends Attribute> otherAttributes = otherAttributes(attributes);
+		if(otherAttributes != null) limit = Math.min(limit, others.getRunLimit(otherAttributes));
+		return limit;
+	}
+
+	/**
+	 * Finds the start of the current run, looking only at the kinds in the mask.
+	 */
+	private int runStart(int mask){
+		if(index >= end) return end;
+		int r = run;
+		if(mask != ALL_KINDS){
+			while(r > 0 && data.runStart(r) > begin && sameKinds(data.runStyle(r - 1), data.runStyle(r), mask)) --r;
+		}
+		return Math.max(data.runStart(r), begin);
+	}
+
+	private int runLimit(int mask){
+		if(index >= end) return end;
+		int r = run;
+		if(mask != ALL_KINDS){
+			while(r + 1 < data.runCount && data.runStart(r + 1) < end
+					&& sameKinds(data.runStyle(r), data.runStyle(r + 1), mask)) ++r;
+		}
+		return Math.min(data.runLimit(r), end);
+	}
+
+	public Map<Attribute, Object> getAttributes(){
+		Map<Attribute, Object> attributes = new HashMap<Attribute, Object>();
+		if(index < end){
+			long style = data.runStyle(run);
+			for(AttributeKind kind : KINDS){
+				if(ANSIStyle.sameAttribute(style, ANSIStyle.DEFAULT, kind)) continue;
+				attributes.put(ANSIAttributedString.KEYS[kind.ordinal()], ANSIStyle.getAttribute(style, kind));
+			}
+		}
+		if(others != null) attributes.putAll(others.getAttributes());
+		return attributes;
+	}
+
+	public Object getAttribute(Attribute attribute){
+		if(attribute instanceof ANSIAttribute){
+			AttributeKind kind = ((ANSIAttribute) attribute).getKind();
+			if(index >= end) return null;
+			long style = data.runStyle(run);
+			if(ANSIStyle.sameAttribute(style, ANSIStyle.DEFAULT, kind)) return null;
+			return ANSIStyle.getAttribute(style, kind);
+		}
+		return others == null ? null : others.getAttribute(attribute);
+	}
+
+	public Set<Attribute> getAllAttributeKeys(){
+		Set<Attribute> keys = new HashSet<Attribute>();
+		if(begin < end){
+			int last = data.runIndex(end - 1);
+			for(int r = data.runIndex(begin);r <= last;++r){
+				for(AttributeKind kind : KINDS){
+					if(!ANSIStyle.sameAttribute(data.runStyle(r), ANSIStyle.DEFAULT, kind)){
+						keys.add(ANSIAttributedString.KEYS[kind.ordinal()]);
+					}
+				}
+			}
+		}
+		if(others != null) keys.addAll(others.getAllAttributeKeys());
+		return keys;
+	}
+
+	public Object clone(){
+		try{
+			StyledTextIterator copy = (StyledTextIterator) super.clone();
+			if(others != null) copy.others = (AttributedCharacterIterator) others.clone();
+			return copy;
+		}catch(CloneNotSupportedException e){
+			throw new InternalError();
+		}
+	}
+
+	static int maskOf(AttributeKind kind){
+		return 1 << kind.ordinal();
+	}
+
+	static int maskOf(Iterable<? extends Attribute> attributes){
+		int mask = 0;
+		for(Attribute attribute : attributes){
+			if(attribute instanceof ANSIAttribute) mask |= maskOf(((ANSIAttribute) attribute).getKind());
+		}
+		return mask;
+	}
+
+	private Set<? extends Attribute> otherAttributes(Set<? extends Attribute> attributes){
+		if(others == null) return null;
+		Set<Attribute> result = new HashSet<Attribute>();
+		for(Attribute attribute : attributes){
+			if(!(attribute instanceof ANSIAttribute)) result.add(attribute);
+		}
+		return result.isEmpty() ? null : result;
+	}
+
+	private static boolean sameKinds(long a, long b, int mask){
+		for(AttributeKind kind : KINDS){
+			if((mask & maskOf(kind)) != 0 && !ANSIStyle.sameAttribute(a, b, kind)) return false;
+		}
+		return true;
+	}
+}
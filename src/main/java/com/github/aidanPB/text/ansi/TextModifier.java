@@ -58,6 +58,11 @@ public enum TextModifier {
 		return codeNumber;
 	}
 
+	/**
+	 * Returns the SGR sequence of this modifier with the given arguments. To put
+	 * several modifiers in one sequence, or to write sequences without creating
+	 * garbage, use an {@link ANSIEscapeBuilder}.
+	 */
 	public String toANSIEscape(int... escargs){
 		StringBuilder sb = new StringBuilder();
 		sb.append("\033[").append(codeNumber);
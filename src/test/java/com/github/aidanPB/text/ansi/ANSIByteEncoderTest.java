@@ -0,0 +1,85 @@
+package com.github.aidanPB.text.ansi;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+import com.github.aidanPB.text.ansi.ANSIAttributedString.ANSIColorDepth;
+import com.github.aidanPB.text.ansi.ANSIAttributedString.ANSIEncoding;
+
+public class ANSIByteEncoderTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Two truecolor reds that both become bright red at 16 colours, with a
+	 * surrogate pair split between them.
+	 */
+	private static final String SPLIT_PAIR = "a\033[38;2;254;0;0mb\uD83D\033[38;2;253;0;0m\uDE00c";
+
+	@Test
+	public void pairsSurrogatesAcrossRunsThatReduceToOneStyle(){
+		assertSameBytes(ANSIAttributedString.fromString(SPLIT_PAIR), ANSIColorDepth.ANSI16, 64);
+	}
+
+	@Test
+	public void pairsSurrogatesAcrossRunsInSmallBuffers(){
+		assertSameBytes(ANSIAttributedString.fromString(SPLIT_PAIR), ANSIColorDepth.ANSI16, 1);
+	}
+
+	@Test
+	public void keepsSplitSurrogatesApartAcrossDistinctRuns(){
+		assertSameBytes(ANSIAttributedString.fromString(SPLIT_PAIR), ANSIColorDepth.TRUECOLOR, 64);
+	}
+
+	@Test
+	public void passesLazySourcesThroughUnchanged(){
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0;i < 3000;++i){
+			//Pairs at every offset against the encoder's windows, and a few sequences.
+			sb.append(i % 7 == 0 ? "\uD83D\uDE00" : i % 5 == 0 ? "\u00E9" : "a");
+			if(i % 300 == 0) sb.append("\033[1;31m");
+		}
+		String source = sb.append("\uD83D").toString();
+		for(int bufferSize : new int[]{1, 7, 4096}){
+			assertArrayEquals(source.getBytes(UTF8), encodeAll(ANSIAttributedString.fromStringLazily(source).newByteEncoder(),
+					bufferSize));
+		}
+	}
+
+	@Test
+	public void writesLazySourcesWithoutSequencesAsTheyAre(){
+		String source = "plain \uD83D\uDE00 text";
+		ANSIAttributedString string = ANSIAttributedString.fromStringLazily(source);
+		assertArrayEquals(source.getBytes(UTF8), encodeAll(string.newByteEncoder(ANSIEncoding.MINIMAL, ANSIColorDepth.ANSI16), 3));
+	}
+
+	@Test
+	public void writesTheEncodingOfFrozenStrings(){
+		ANSIAttributedString string = ANSIAttributedString.fromString(SPLIT_PAIR + "\033[1;4md").freeze();
+		assertArrayEquals(string.toString().getBytes(UTF8), encodeAll(string.newByteEncoder(), 5));
+	}
+
+	private static void assertSameBytes(ANSIAttributedString string, ANSIColorDepth depth, int bufferSize){
+		byte[] expected = string.encode(ANSIEncoding.SEPARATE, depth).getBytes(UTF8);
+		assertArrayEquals(expected, encodeAll(string.newByteEncoder(ANSIEncoding.SEPARATE, depth), bufferSize));
+	}
+
+	private static byte[] encodeAll(ANSIByteEncoder encoder, int bufferSize){
+		ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		boolean done;
+		do{
+			done = encoder.encode(buffer);
+			out.write(buffer.array(), 0, buffer.position());
+			buffer.clear();
+		}while(!done);
+		assertTrue(encoder.isDone());
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,70 @@
+package com.github.aidanPB.text.ansi;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ANSIByteParserTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Collects the segments as plain text and the style of each char.
+	 */
+	private static final class Collector implements ANSIByteParser.SegmentHandler{
+
+		final StringBuilder text = new StringBuilder();
+		long[] styles = new long[16];
+
+		public void segment(ANSIByteParser.Segment segment){
+			assertEquals(text.length(), segment.getCharStart());
+			text.append(segment.getText());
+			assertEquals(text.length(), segment.getCharEnd());
+			if(text.length() > styles.length) styles = Arrays.copyOf(styles, text.length() * 2);
+			Arrays.fill(styles, segment.getCharStart(), segment.getCharEnd(), segment.getStyle());
+		}
+	}
+
+	@Test
+	public void parsesEveryPrefixAsFromString(){
+		Random random = new Random(5);
+		for(int n = 0;n < 2000;++n){
+			String input = TestInputs.random(random, 10);
+			for(int end = 0;end <= input.length();++end){
+				//Only cut between code points, where the bytes are whole characters.
+				if(end > 0 && end < input.length() && Character.isLowSurrogate(input.charAt(end))) continue;
+				String prefix = input.substring(0, end);
+				byte[] bytes = prefix.getBytes(UTF8);
+				Collector collector = new Collector();
+				new ANSIByteParser(collector).parse(bytes);
+				TestInputs.assertParsedAs(prefix, collector.text, collector.styles);
+			}
+		}
+	}
+
+	@Test
+	public void parsesRangesOfArraysAndDirectBuffers(){
+		Random random = new Random(6);
+		for(int n = 0;n < 2000;++n){
+			String input = TestInputs.random(random, 20);
+			byte[] bytes = input.getBytes(UTF8);
+			byte[] padded = new byte[bytes.length + 6];
+			Arrays.fill(padded, (byte) 'm');
+			System.arraycopy(bytes, 0, padded, 3, bytes.length);
+			Collector collector = new Collector();
+			new ANSIByteParser(collector).parse(padded, 3, bytes.length);
+			TestInputs.assertParsedAs(input, collector.text, collector.styles);
+			ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+			direct.put(bytes).flip();
+			collector = new Collector();
+			new ANSIByteParser(collector).parse(direct);
+			assertEquals(direct.limit(), direct.position());
+			TestInputs.assertParsedAs(input, collector.text, collector.styles);
+		}
+	}
+}
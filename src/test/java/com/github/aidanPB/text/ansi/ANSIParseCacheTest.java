@@ -0,0 +1,60 @@
+package com.github.aidanPB.text.ansi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ANSIParseCacheTest {
+
+	@Test
+	public void keepsInputsBelowTheWeightLimit(){
+		ANSIParseCache cache = new ANSIParseCache(100);
+		String prompt = "\033[32muser\033[0m$ ";
+		ANSIAttributedString first = cache.get(prompt);
+		assertSame(first, cache.get(prompt));
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getSize());
+		assertEquals(prompt.length(), cache.getWeight());
+	}
+
+	@Test
+	public void encodesAsFromString(){
+		ANSIParseCache cache = new ANSIParseCache(100);
+		String input = "\033[1m\033[31mX\033[0m";
+		String expected = ANSIAttributedString.fromString(input).toString();
+		assertEquals(expected, ANSIAttributedString.fromString(input, cache).toString());
+		assertEquals(expected, cache.get(input).toString());
+	}
+
+	@Test
+	public void keepsAnInputOfTheWholeWeight(){
+		ANSIParseCache cache = new ANSIParseCache(10);
+		String input = "0123456789";
+		assertSame(cache.get(input), cache.get(input));
+	}
+
+	@Test
+	public void doesNotKeepInputsAboveTheWeightLimit(){
+		ANSIParseCache cache = new ANSIParseCache(10);
+		String input = "0123456789A";
+		assertNotSame(cache.get(input), cache.get(input));
+		assertEquals(0, cache.getSize());
+		assertEquals(0, cache.getWeight());
+	}
+
+	@Test
+	public void staysWithinTheWeightLimit(){
+		ANSIParseCache cache = new ANSIParseCache(5);
+		for(int i = 0;i < 100;++i){
+			String input = "ab" + i;
+			ANSIAttributedString string = cache.get(input);
+			assertTrue(cache.getWeight() <= 5);
+			//The entry just added is never the one evicted.
+			assertSame(string, cache.get(input));
+		}
+		assertTrue(cache.getEvictionCount() > 0);
+	}
+}
@@ -0,0 +1,86 @@
+package com.github.aidanPB.text.ansi;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ANSIStreamParserTest {
+
+	/**
+	 * Collects the segments as plain text and the style of each char.
+	 */
+	private static final class Collector implements ANSIStreamParser.SegmentHandler{
+
+		final StringBuilder text = new StringBuilder();
+		long[] styles = new long[16];
+
+		public void segment(CharSequence chars, int start, int end, long style){
+			int from = text.length();
+			text.append(chars, start, end);
+			if(text.length() > styles.length) styles = Arrays.copyOf(styles, text.length() * 2);
+			Arrays.fill(styles, from, text.length(), style);
+		}
+	}
+
+	@Test
+	public void parsesSequencesSplitAtEveryIndex(){
+		Random random = new Random(2);
+		for(int n = 0;n < 2000;++n){
+			String input = TestInputs.random(random, 10);
+			for(int split = 0;split <= input.length();++split){
+				Collector collector = new Collector();
+				ANSIStreamParser parser = new ANSIStreamParser(collector);
+				parser.feed(input.substring(0, split));
+				parser.feed(CharBuffer.wrap(input, split, input.length()));
+				parser.finish();
+				TestInputs.assertParsedAs(input, collector.text, collector.styles);
+			}
+		}
+	}
+
+	@Test
+	public void parsesInputFedOneCharAtATime(){
+		Random random = new Random(3);
+		for(int n = 0;n < 2000;++n){
+			String input = TestInputs.random(random, 20);
+			Collector collector = new Collector();
+			ANSIStreamParser parser = new ANSIStreamParser(collector);
+			for(int i = 0;i < input.length();++i){
+				parser.feed(input.subSequence(i, i + 1));
+			}
+			parser.finish();
+			TestInputs.assertParsedAs(input, collector.text, collector.styles);
+		}
+	}
+
+	@Test
+	public void parsesReaders() throws IOException{
+		Random random = new Random(4);
+		StringBuilder sb = new StringBuilder();
+		while(sb.length() < 50000) sb.append(TestInputs.random(random, 20));
+		String input = sb.toString();
+		Collector collector = new Collector();
+		new ANSIStreamParser(collector).parse(new StringReader(input));
+		TestInputs.assertParsedAs(input, collector.text, collector.styles);
+	}
+
+	@Test
+	public void passesOverlongPartialSequencesThroughAsText(){
+		char[] params = new char[ANSIStreamParser.MAX_SEQUENCE_LENGTH];
+		Arrays.fill(params, ';');
+		String input = "\033[" + new String(params) + "1mx";
+		Collector collector = new Collector();
+		ANSIStreamParser parser = new ANSIStreamParser(collector);
+		for(int i = 0;i < input.length();++i){
+			parser.feed(input.subSequence(i, i + 1));
+		}
+		parser.finish();
+		assertEquals(input, collector.text.toString());
+	}
+}
@@ -0,0 +1,45 @@
+package com.github.aidanPB.text.ansi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import com.github.aidanPB.text.ansi.ANSIAttributedString.ANSIAttribute.AttributeKind;
+
+public class ANSIStyleTest {
+
+	@Test
+	public void rejectsValuesOfTheWrongTypeForEveryKind(){
+		for(AttributeKind kind : AttributeKind.values()){
+			try{
+				ANSIStyle.withAttribute(ANSIStyle.DEFAULT, kind, "bold");
+				fail(kind.toString());
+			}catch(IllegalArgumentException e){
+				//expected
+			}
+		}
+	}
+
+	@Test
+	public void readsNullAsTheDefaultForEveryKind(){
+		long style = ANSIAttributedString.fromString("\033[1;5;11;3;4;7;9;31;42;51;53mx").styleAt(0);
+		for(AttributeKind kind : AttributeKind.values()){
+			style = ANSIStyle.withAttribute(style, kind, null);
+		}
+		assertEquals(ANSIStyle.DEFAULT, style);
+	}
+
+	@Test
+	public void leavesTheStringUnchangedWhenAValueIsRejected(){
+		String input = "\033[1mbold\033[0m";
+		ANSIAttributedString string = ANSIAttributedString.fromStringLazily(input);
+		try{
+			string.addAttribute(ANSIAttributedString.ANSI_FONT, Byte.valueOf((byte) 12));
+			fail();
+		}catch(IllegalArgumentException e){
+			//expected
+		}
+		assertEquals(input, string.toString());
+	}
+}
@@ -0,0 +1,65 @@
+package com.github.aidanPB.text.ansi;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ParallelParserTest {
+
+	private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+	@After
+	public void shutDown(){
+		executor.shutdown();
+	}
+
+	@Test
+	public void parsesLargeInputsAsFromString() throws InterruptedException{
+		Random random = new Random(7);
+		for(int n = 0;n < 3;++n){
+			StringBuilder sb = new StringBuilder();
+			while(sb.length() < 2 * ParallelParser.MIN_CHUNK + 1000) sb.append(TestInputs.random(random, 20));
+			String input = sb.toString();
+			assertParsedAs(input, ParallelParser.parse(input, executor, 8));
+		}
+	}
+
+	@Test
+	public void parsesSmallInputsInManyChunksAsFromString() throws InterruptedException{
+		Random random = new Random(8);
+		for(int n = 0;n < 500;++n){
+			StringBuilder sb = new StringBuilder();
+			for(int i = 0;i < 20;++i) sb.append(TestInputs.random(random, 10));
+			String input = sb.toString();
+			assertParsedAs(input, ParallelParser.parse(input, executor, 1 + random.nextInt(32)));
+		}
+	}
+
+	@Test
+	public void doesNotSplitInsideSequencesThatSpanLines() throws InterruptedException{
+		StringBuilder sb = new StringBuilder("\033[1mbold\n\033[");
+		while(sb.length() < ParallelParser.MIN_CHUNK) sb.append("12;\n");
+		sb.append("31mred\n\033[0mplain\n");
+		String input = sb.toString();
+		assertParsedAs(input, ParallelParser.parse(input, executor, 16));
+	}
+
+	@Test
+	public void fallsBackToFromStringForSmallInputs() throws InterruptedException{
+		String input = "\033[1mbold\033[0m\n";
+		assertEquals(ANSIAttributedString.fromString(input).toString(),
+				ANSIAttributedString.fromString(input, executor).toString());
+	}
+
+	private static void assertParsedAs(String input, ANSIAttributedString parsed){
+		ANSIAttributedString expected = ANSIAttributedString.fromString(input);
+		assertEquals(expected.getPlainText(), parsed.getPlainText());
+		assertEquals(expected.encode(ANSIAttributedString.ANSIEncoding.SEPARATE),
+				parsed.encode(ANSIAttributedString.ANSIEncoding.SEPARATE));
+	}
+}
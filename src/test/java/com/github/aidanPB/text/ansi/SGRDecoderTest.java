@@ -0,0 +1,100 @@
+package com.github.aidanPB.text.ansi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.github.aidanPB.text.ansi.ANSIAttributedString.ANSILetterform;
+import com.github.aidanPB.text.ansi.ANSIAttributedString.ANSIWeight;
+
+public class SGRDecoderTest {
+
+	@Test
+	public void turnsStrikeOutOnAndOff(){
+		long style = decode(ANSIStyle.DEFAULT, "9");
+		assertTrue(ANSIStyle.isStruckOut(style));
+		assertFalse(ANSIStyle.isStruckOut(decode(style, "29")));
+	}
+
+	@Test
+	public void setsBrightBackgrounds(){
+		for(int i = 0;i < 8;++i){
+			long style = decode(ANSIStyle.DEFAULT, Integer.toString(100 + i));
+			assertEquals(SGRPalette.BRIGHT[i], ANSIStyle.getBackground(style));
+			assertEquals(ANSIStyle.DEFAULT_COLOR, ANSIStyle.getForeground(style));
+		}
+	}
+
+	@Test
+	public void encodesStrikeOutAndBrightBackgroundsBack(){
+		String input = "\033[9ma\033[29;103mb\033[49mc";
+		ANSIAttributedString string = ANSIAttributedString.fromString(input);
+		ANSIAttributedString again = ANSIAttributedString.fromString(string.toString());
+		for(int i = 0;i < string.length();++i){
+			assertEquals(string.styleAt(i), again.styleAt(i));
+		}
+	}
+
+	@Test
+	public void appliesEveryParameterOfACombinedSequence(){
+		long style = decode(ANSIStyle.DEFAULT, "1;31;42");
+		assertEquals(ANSIWeight.BOLD, ANSIStyle.getWeight(style));
+		assertEquals(SGRPalette.BASIC_FG[1], ANSIStyle.getForeground(style));
+		assertEquals(SGRPalette.BASIC_BG[2], ANSIStyle.getBackground(style));
+	}
+
+	@Test
+	public void decodesSeveralExtendedColoursInOneSequence(){
+		long style = decode(ANSIStyle.DEFAULT, "38;5;208;48;2;1;2;3;4");
+		assertEquals(SGRPalette.INDEXED[208], ANSIStyle.getForeground(style));
+		assertEquals(0x010203, ANSIStyle.getBackground(style));
+		assertTrue(ANSIStyle.isUnderlined(style));
+	}
+
+	@Test
+	public void decodesColonSeparatedColours(){
+		assertEquals(SGRPalette.INDEXED[9], ANSIStyle.getForeground(decode(ANSIStyle.DEFAULT, "38:5:9")));
+		assertEquals(0x0A141E, ANSIStyle.getForeground(decode(ANSIStyle.DEFAULT, "38:2:10:20:30")));
+		//With and without a colour space id.
+		assertEquals(0x0A141E, ANSIStyle.getBackground(decode(ANSIStyle.DEFAULT, "48:2::10:20:30")));
+		assertEquals(0x0A141E, ANSIStyle.getBackground(decode(ANSIStyle.DEFAULT, "48:2:0:10:20:30")));
+		long style = decode(ANSIStyle.DEFAULT, "38:2::1:2:3;1");
+		assertEquals(0x010203, ANSIStyle.getForeground(style));
+		assertEquals(ANSIWeight.BOLD, ANSIStyle.getWeight(style));
+	}
+
+	@Test
+	public void skipsTheArgumentsOfUnderlineColours(){
+		long style = decode(ANSIStyle.DEFAULT, "58;5;1;58:2::1:2:3;3");
+		assertEquals(ANSIStyle.withLetterform(ANSIStyle.DEFAULT, ANSILetterform.ITALIC), style);
+	}
+
+	@Test
+	public void readsUnderlineStyles(){
+		long style = decode(ANSIStyle.DEFAULT, "4:3");
+		assertTrue(ANSIStyle.isUnderlined(style));
+		assertFalse(ANSIStyle.isUnderlined(decode(style, "4:0")));
+	}
+
+	@Test
+	public void decodesCombinedSequencesAsSeparateOnes(){
+		long combined = decode(ANSIStyle.DEFAULT, "1;38;5;100;4;48;2;9;8;7;103;22");
+		long separate = ANSIStyle.DEFAULT;
+		for(String params : new String[]{"1", "38;5;100", "4", "48;2;9;8;7", "103", "22"}){
+			separate = decode(separate, params);
+		}
+		assertEquals(separate, combined);
+	}
+
+	/**
+	 * Decodes the sequence with the given parameters.
+	 */
+	private static long decode(long style, String params){
+		String sequence = "\033[" + params + "m";
+		SGRLexer lexer = new SGRLexer();
+		assertTrue(lexer.find(sequence, 0, sequence.length()));
+		return SGRDecoder.decode(style, lexer);
+	}
+}
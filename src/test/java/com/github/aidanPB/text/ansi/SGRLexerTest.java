@@ -0,0 +1,113 @@
+package com.github.aidanPB.text.ansi;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class SGRLexerTest {
+
+	/**
+	 * The pattern that fromString used before the lexer.
+	 */
+	private static final Pattern ANSIPAT = Pattern.compile("\\e\\[(?:(\\d{1,3})((?:;\\d{1,3})*))?([^a-zA-Z]+?)?m");
+
+	/**
+	 * Parameters the old pattern read in full: up to three digits each, separated
+	 * by ';'.
+	 */
+	private static final Pattern PLAIN_PARAMS = Pattern.compile("\\d{1,3}(?:;\\d{1,3})*");
+
+	private static final String ALPHABET = "\033\033[[mm0123456789;;:aZ x\u00E9";
+
+	@Test
+	public void readsParameters(){
+		SGRLexer lexer = new SGRLexer();
+		String input = "a\033[1;38;5;200mb";
+		assertTrue(lexer.find(input, 0, input.length()));
+		assertEquals(1, lexer.start);
+		assertEquals(input.length() - 1, lexer.end);
+		assertArrayEquals(new int[]{1, 38, 5, 200}, Arrays.copyOf(lexer.params, lexer.paramCount));
+	}
+
+	@Test
+	public void reportsCutOffSequences(){
+		SGRLexer lexer = new SGRLexer();
+		String input = "ab\033[1;3";
+		assertFalse(lexer.find(input, 0, input.length()));
+		assertEquals(2, lexer.start);
+		assertFalse(lexer.find("plain", 0, 5));
+		assertEquals(5, lexer.start);
+	}
+
+	@Test
+	public void findsTheSequencesOfTheOldPattern(){
+		Random random = new Random(1);
+		SGRLexer lexer = new SGRLexer();
+		for(int n = 0;n < 20000;++n){
+			String input = randomInput(random);
+			Matcher matcher = ANSIPAT.matcher(input);
+			int pos = 0;
+			while(lexer.find(input, pos, input.length())){
+				assertTrue(input, matcher.find());
+				assertEquals(input, matcher.start(), lexer.start);
+				assertEquals(input, matcher.end(), lexer.end);
+				String params = paramText(input, lexer.start + 2);
+				if(params.length() == 0 || PLAIN_PARAMS.matcher(params).matches()){
+					assertArrayEquals(input, regexParams(matcher), Arrays.copyOf(lexer.params, lexer.paramCount));
+				}
+				pos = lexer.end;
+			}
+			assertFalse(input, matcher.find());
+		}
+	}
+
+	private static String randomInput(Random random){
+		StringBuilder sb = new StringBuilder();
+		int parts = random.nextInt(6);
+		for(int i = 0;i < parts;++i){
+			if(random.nextBoolean()){
+				sb.append("\033[");
+				int params = random.nextInt(4);
+				for(int j = 0;j < params;++j){
+					if(j > 0) sb.append(';');
+					sb.append(random.nextInt(random.nextBoolean() ? 108 : 2000));
+				}
+				sb.append('m');
+			}else{
+				int length = random.nextInt(8);
+				for(int j = 0;j < length;++j){
+					sb.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+				}
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the digits, ';' and ':' that start at the given index.
+	 */
+	private static String paramText(String input, int from){
+		int end = from;
+		while(end < input.length() && "0123456789;:".indexOf(input.charAt(end)) >= 0) ++end;
+		return input.substring(from, end);
+	}
+
+	private static int[] regexParams(Matcher matcher){
+		if(matcher.group(1) == null) return new int[0];
+		String params = matcher.group(1) + matcher.group(2);
+		String[] parts = params.split(";");
+		int[] values = new int[parts.length];
+		for(int i = 0;i < parts.length;++i){
+			values[i] = Integer.parseInt(parts[i]);
+		}
+		return values;
+	}
+}
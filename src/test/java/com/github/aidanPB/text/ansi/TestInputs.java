@@ -0,0 +1,54 @@
+package com.github.aidanPB.text.ansi;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+/**
+ * Random escaped inputs for comparing the parsers with fromString, and checks of
+ * their results.
+ */
+final class TestInputs {
+
+	private static final String[] CODES = {"0", "1", "2", "3", "4", "5", "7", "9", "21", "22", "23", "24", "25", "27", "29",
+			"31", "32", "39", "44", "49", "53", "55", "91", "97", "100", "107", "38;5;196", "48;5;21", "38;2;10;20;30",
+			"48:2::1:2:3", "38:5:9", "4:0", "4:3", "58;5;3", "1;31;42", ""};
+
+	private static final String[] TEXT = {"a", "text ", "\n", "\u00E9", "\u20AC", "\uD83D\uDE00", "[m", "\033", "42;", "x\n\n"};
+
+	private TestInputs(){}
+
+	/**
+	 * Returns an input of up to the given number of parts, each of them text, a
+	 * sequence, or a cut-off or malformed escape.
+	 */
+	static String random(Random random, int parts){
+		StringBuilder sb = new StringBuilder();
+		int count = random.nextInt(parts + 1);
+		for(int i = 0;i < count;++i){
+			int kind = random.nextInt(10);
+			if(kind < 4){
+				sb.append("\033[").append(CODES[random.nextInt(CODES.length)]);
+				if(random.nextBoolean()) sb.append(';').append(CODES[random.nextInt(CODES.length)]);
+				sb.append('m');
+			}else if(kind == 4){
+				sb.append("\033[").append(random.nextInt(50)).append(random.nextBoolean() ? "K" : "");
+			}else{
+				sb.append(TEXT[random.nextInt(TEXT.length)]);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Checks that a parser gave the plain text and the style of each character that
+	 * fromString gives.
+	 */
+	static void assertParsedAs(String input, CharSequence text, long[] styles){
+		ANSIAttributedString expected = ANSIAttributedString.fromString(input);
+		assertEquals(input, expected.getPlainText(), text.toString());
+		for(int i = 0;i < text.length();++i){
+			assertEquals(input, expected.styleAt(i), styles[i]);
+		}
+	}
+}